@@ -6,140 +6,212 @@
 Servo l;
 Servo r;
 
-class ServoController;
-
 class ServoController{
 public:
   
   void move(int langle, int rangle) {
     l.write(180 - langle);
     r.write(rangle);
-    Serial.print("Moving with angles: ");
-    Serial.print(langle);
-    Serial.print(", ");
-    Serial.println(rangle);
   }
 };
 
 ServoController *servoController = new ServoController();
 
-class SerialCommander{
-public:
-  String stack = "";
-  int buff[10][10];
-  int index = 0;
-  String cmd = "";
-  
-  void addToStack(){
-    //stack.concat(Serial.readString());
+// Binary frames: SYNC LENGTH TYPE PAYLOAD... CRC
+// CRC-8 (polynomial 0x07) of LENGTH, TYPE and PAYLOAD, see SerialProtocol.java
+
+#define SYNC 0xA5
+#define MAX_PAYLOAD 32
+
+#define TYPE_MOTORS 1
+#define TYPE_STREAM 2
+
+#define TYPE_ULTRASONIC 16
+#define TYPE_INFRARED_LINE 17
+#define TYPE_BUTTONS 18
+#define TYPE_SWITCHES 19
+
+// sensors streamed to the Raspberry Pi, pins 0 and 1 are used by Serial
+#define US_TRIGGER 12
+const int US_ECHO[] = {8};
+const int NUMBER_OF_US_SENSORS = 1;
+const int IR_LINE[] = {A0, A1, A2, A3, A4, A5};
+const int NUMBER_OF_IR_SENSORS = 6;
+const int BUTTONS[] = {2, 3, 4};
+const int NUMBER_OF_BUTTONS = 3;
+const int SWITCHES[] = {5, 6, 7};
+const int NUMBER_OF_SWITCHES = 3;
+
+// streaming periods in milliseconds, 0 = off, indexed by type - TYPE_ULTRASONIC
+unsigned int streamPeriod[4] = {0, 0, 0, 0};
+unsigned long streamLast[4] = {0, 0, 0, 0};
+int nextUltrasonic = 0;
+
+byte crc8(byte crc, byte b) {
+  crc ^= b;
+  for (int i = 0; i < 8; i++) {
+    crc = (crc & 0x80) ? (crc << 1) ^ 0x07 : crc << 1;
   }
-  
-  void executeStack(){
-    while(true){
-        index = stack.indexOf(";")+1;
-        cmd = stack.substring(0, index);
-        stack = stack.substring(index);
-        cmd.trim();
-        if(cmd != "") execute(cmd);
-        if(stack == ""){
-          break;
-        }
-      }
+  return crc;
+}
+
+void sendFrame(byte type, const byte *payload, byte length) {
+  byte crc = crc8(crc8(0, length), type);
+  Serial.write(SYNC);
+  Serial.write(length);
+  Serial.write(type);
+  for (int i = 0; i < length; i++) {
+    Serial.write(payload[i]);
+    crc = crc8(crc, payload[i]);
   }
-  
-  void execute(String cmd){
-    int space = cmd.indexOf(" ");
-    String first = cmd.substring(0, space);
-
-    cmd = cmd.substring(space+1);
-    
-    switch(first.toInt()){
-    case 1:
-      space = cmd.indexOf(" ");
-      
-      int langle = cmd.substring(0, space).toInt();
-      cmd = cmd.substring(space+1);
-      
-      int rangle = cmd.substring(0, cmd.indexOf(";")).toInt();
-      
-      servoController->move(langle, rangle);
+  Serial.write(crc);
+}
+
+void processFrame(byte type, byte payload[], byte length) {
+  switch(type){
+    case TYPE_MOTORS:
+      if (length >= 2) {
+        servoController->move(payload[0], payload[1]);
+      }
       break;
-    }
-  }
-  
-  String buildCommand(char c[], int length){
-    String s = "";
-    for(int i = 0; i < length; i++){
-      if(i == length-1){
-        s.concat(c[i]);
-        s.concat(";");
-      } else {
-        s.concat(c[i]);
-        s.concat(" ");
+    case TYPE_STREAM:
+      if (length >= 3 && payload[0] >= TYPE_ULTRASONIC && payload[0] <= TYPE_SWITCHES) {
+        streamPeriod[payload[0] - TYPE_ULTRASONIC] = (payload[1] << 8) | payload[2];
       }
+      break;
+  }
+}
+
+// sensor packets start with micros() of the measurement, big-endian
+byte packet[4 + 8];
+
+void putTime(unsigned long t) {
+  packet[0] = t >> 24;
+  packet[1] = t >> 16;
+  packet[2] = t >> 8;
+  packet[3] = t;
+}
+
+void sendUltrasonic() {
+  int index = nextUltrasonic;
+  nextUltrasonic = (nextUltrasonic + 1) % NUMBER_OF_US_SENSORS;
+  unsigned long t = micros();
+  digitalWrite(US_TRIGGER, HIGH);
+  delayMicroseconds(10);
+  digitalWrite(US_TRIGGER, LOW);
+  unsigned long pulse = pulseIn(US_ECHO[index], HIGH, 38000);
+  if (pulse == 0 || pulse > 38000) {
+    pulse = 38000;
+  }
+  putTime(t);
+  packet[4] = index;
+  packet[5] = pulse >> 8;
+  packet[6] = pulse;
+  sendFrame(TYPE_ULTRASONIC, packet, 7);
+}
+
+void sendInfraredLine() {
+  putTime(micros());
+  for (int i = 0; i < 8; i++) {
+    packet[4 + i] = i < NUMBER_OF_IR_SENSORS ? analogRead(IR_LINE[i]) >> 2 : 0;
+  }
+  sendFrame(TYPE_INFRARED_LINE, packet, 12);
+}
+
+void sendButtons() {
+  putTime(micros());
+  byte bits = 0;
+  for (int i = 0; i < NUMBER_OF_BUTTONS; i++) {
+    // buttons connect the pin to the ground
+    if (digitalRead(BUTTONS[i]) == LOW) {
+      bits |= 1 << i;
     }
-    return s;
   }
-  
-  void send(String cmd) {
-    Serial.println(cmd);
+  packet[4] = 0;
+  packet[5] = bits;
+  sendFrame(TYPE_BUTTONS, packet, 6);
+}
+
+void sendSwitches() {
+  putTime(micros());
+  byte bits = 0;
+  for (int i = 0; i < NUMBER_OF_SWITCHES; i++) {
+    if (digitalRead(SWITCHES[i]) == LOW) {
+      bits |= 1 << i;
+    }
   }
-};
+  packet[4] = bits;
+  sendFrame(TYPE_SWITCHES, packet, 5);
+}
 
-SerialCommander *serialCommander = new SerialCommander();
-
-int dIndex = 0;
-int buff[5];
-int nbuff[5];
-int nIndex = 0;
-
-int clangle = 90;
-int crangle = 90;
-int difference;
-
-void processCommand(int arr[]) {
-  switch(arr[0]){
-    case 1:
-    	int langle = arr[1];
-    	int rangle = arr[2];
-    	//int langle = arr[1] + (arr[1] - clangle)/3; //change the speed slowly
-    	//int rangle = arr[1] + (arr[2] - crangle)/3;
-      
-      servoController->move(langle, rangle);
-      break;
+void stream() {
+  unsigned long now = millis();
+  for (int i = 0; i < 4; i++) {
+    if (streamPeriod[i] == 0 || now - streamLast[i] < streamPeriod[i]) {
+      continue;
+    }
+    streamLast[i] = now;
+    switch (i + TYPE_ULTRASONIC) {
+      case TYPE_ULTRASONIC: sendUltrasonic(); break;
+      case TYPE_INFRARED_LINE: sendInfraredLine(); break;
+      case TYPE_BUTTONS: sendButtons(); break;
+      case TYPE_SWITCHES: sendSwitches(); break;
+    }
   }
 }
 
+// receiver state
+enum { WAIT_SYNC, READ_LENGTH, READ_TYPE, READ_PAYLOAD, READ_CRC } state = WAIT_SYNC;
+byte frameLength;
+byte frameType;
+byte framePayload[MAX_PAYLOAD];
+byte frameIndex;
+byte frameCrc;
+
+// returns 1 if a whole frame has been received
 int readCharacter(){
     int n = Serial.read();
     if (n == -1) {
       return 0;
     }
-    char c = char(n);
-    if(isDigit(c)){
-      buff[dIndex] = c - '0';
-      dIndex++;
-    } else {
-      int num = 0;
-      for(int i = 0; i < 5;i++){
-        if (buff[i] != -1) {
-          num = num*10 + buff[i];
-          buff[i] = -1;
+    byte b = n;
+    switch (state) {
+      case WAIT_SYNC:
+        if (b == SYNC) {
+          state = READ_LENGTH;
         }
-      }
-      dIndex = 0;
-      
-      nbuff[nIndex] = num;
-      nIndex++;
-      if (c == ';') {
-        processCommand(nbuff);
-        for (int i = 0; i < 5; i++) {
-          nbuff[i] = -1;
+        break;
+      case READ_LENGTH:
+        if (b > MAX_PAYLOAD) {
+          state = b == SYNC ? READ_LENGTH : WAIT_SYNC;
+          break;
         }
-        nIndex = 0;
-      }
+        frameLength = b;
+        frameCrc = crc8(0, b);
+        state = READ_TYPE;
+        break;
+      case READ_TYPE:
+        frameType = b;
+        frameCrc = crc8(frameCrc, b);
+        frameIndex = 0;
+        state = frameLength > 0 ? READ_PAYLOAD : READ_CRC;
+        break;
+      case READ_PAYLOAD:
+        framePayload[frameIndex++] = b;
+        frameCrc = crc8(frameCrc, b);
+        if (frameIndex == frameLength) {
+          state = READ_CRC;
+        }
+        break;
+      case READ_CRC:
+        state = WAIT_SYNC;
+        if (b == frameCrc) {
+          processFrame(frameType, framePayload, frameLength);
+          return 1;
+        }
+        break;
     }
-    return 1;
+    return 0;
 }
 
 int result;
@@ -152,6 +224,16 @@ void setup() {
   r.attach(11);
   l.write(90);
   r.write(90);
+  pinMode(US_TRIGGER, OUTPUT);
+  for (int i = 0; i < NUMBER_OF_US_SENSORS; i++) {
+    pinMode(US_ECHO[i], INPUT);
+  }
+  for (int i = 0; i < NUMBER_OF_BUTTONS; i++) {
+    pinMode(BUTTONS[i], INPUT_PULLUP);
+  }
+  for (int i = 0; i < NUMBER_OF_SWITCHES; i++) {
+    pinMode(SWITCHES[i], INPUT_PULLUP);
+  }
   currtime = millis();
 }
 
@@ -165,4 +247,5 @@ void loop() {
     r.write(90);
   }
   //}
+  stream();
 }
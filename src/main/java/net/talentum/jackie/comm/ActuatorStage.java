@@ -0,0 +1,371 @@
+package net.talentum.jackie.comm;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import net.talentum.jackie.system.Config;
+
+/**
+ * Output stage for actuators (motors, lights and LEDs). The write methods only
+ * store the requested value and return immediately; a dedicated writer thread
+ * performs the transfers through the {@link Commander}.
+ *
+ * <p>
+ * Every actuator has a slot holding only the latest requested value, so
+ * values requested faster than they can be written are coalesced. A value
+ * equal to the last written one is not written again. Slots are written in the
+ * order they were requested, but transfers to one device are separated by at
+ * least {@link Config#actuatorMinInterval} milliseconds. When a sequence
+ * requires the values to be really written, {@link #flush()} waits for that.
+ * A value whose transfer failed is requeued and written again after
+ * {@link #RETRY_DELAY}, unless a newer value was requested meanwhile; after
+ * {@link #MAX_ATTEMPTS} failed attempts it's dropped.
+ * </p>
+ *
+ * <p>
+ * Successfully written propulsion motor values can be recorded in a
+ * {@link MotorHistory}.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class ActuatorStage {
+
+	/**
+	 * Kind of the write, determines the {@link Commander} method used.
+	 */
+	private static final int PROPULSION = 0;
+	private static final int MOTOR = 1;
+	private static final int LIGHT = 2;
+	private static final int LIGHT_ANALOG = 3;
+	private static final int LED = 4;
+
+	private static final int MOTORS = 8;
+	private static final int LIGHTS = 2;
+	private static final int LEDS = 8;
+
+	/**
+	 * Milliseconds before a failed value is written again
+	 */
+	private static final long RETRY_DELAY = 10;
+	private static final int MAX_ATTEMPTS = 10;
+
+	/**
+	 * Latest requested and last written value of one actuator.
+	 */
+	private static class Slot {
+
+		final int kind;
+		final int index;
+		final Device device;
+
+		final int[] pending = new int[2];
+		boolean hasPending = false;
+		final int[] written = new int[2];
+		boolean hasWritten = false;
+
+		/**
+		 * Whether the writer is transferring a value taken from
+		 * {@link #pending}, which may differ from {@link #written}
+		 */
+		boolean writing = false;
+
+		/**
+		 * Failed attempts to write the pending value, and the
+		 * {@link System#nanoTime()} before which it's not attempted again
+		 */
+		int failures = 0;
+		long retryAt;
+
+		/**
+		 * Slot sharing the actuator (digital and analog light)
+		 */
+		Slot sibling;
+
+		Slot(int kind, int index, Device device) {
+			this.kind = kind;
+			this.index = index;
+			this.device = device;
+		}
+
+	}
+
+	private final Commander commander;
+
+	private final Slot propulsion;
+	private final Slot[] motors = new Slot[MOTORS];
+	private final Slot[] lights = new Slot[LIGHTS];
+	private final Slot[] lightsAnalog = new Slot[LIGHTS];
+	private final Slot[] leds = new Slot[LEDS];
+
+	// guarded by queue
+	private final ArrayDeque<Slot> queue = new ArrayDeque<Slot>();
+	private final Map<Device, Long> lastWrite = new IdentityHashMap<Device, Long>();
+	private int inProgress = 0;
+	private boolean running = true;
+
+	private final Thread writer;
+
+	private volatile MotorHistory motorHistory;
+	private volatile LongSupplier clock = System::nanoTime;
+
+	public ActuatorStage(Commander commander) {
+		this.commander = commander;
+
+		propulsion = new Slot(PROPULSION, 0, commander.i2c.deviceA);
+		for (int i = 0; i < MOTORS; i++) {
+			motors[i] = new Slot(MOTOR, i, commander.i2c.deviceA);
+		}
+		for (int i = 0; i < LIGHTS; i++) {
+			lights[i] = new Slot(LIGHT, i, commander.getDeviceLight(i));
+			lightsAnalog[i] = new Slot(LIGHT_ANALOG, i, commander.getDeviceLight(i));
+			lights[i].sibling = lightsAnalog[i];
+			lightsAnalog[i].sibling = lights[i];
+		}
+		for (int i = 0; i < LEDS; i++) {
+			leds[i] = new Slot(LED, i, commander.i2c.deviceC);
+		}
+
+		writer = new Thread(this::run, "ActuatorWriter");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Sets the history to record the written propulsion motor values in.
+	 * 
+	 * @param motorHistory
+	 * @param clock
+	 *            time source for the records
+	 */
+	public void setMotorHistory(MotorHistory motorHistory, LongSupplier clock) {
+		this.clock = clock;
+		this.motorHistory = motorHistory;
+	}
+
+	// ===== Requests =====
+
+	/**
+	 * @see Commander#writePropulsionMotors(int, int)
+	 */
+	public void writePropulsionMotors(int left, int right) {
+		request(propulsion, left, right);
+	}
+
+	/**
+	 * @see Commander#writePropulsionMotors(int)
+	 */
+	public void writePropulsionMotors(int both) {
+		request(propulsion, both, both);
+	}
+
+	/**
+	 * @see Commander#writeMotor(int, int)
+	 */
+	public void writeMotor(int index, int value) {
+		request(motors[index], value, 0);
+	}
+
+	/**
+	 * @see Commander#light(int, boolean)
+	 */
+	public void light(int index, boolean value) {
+		request(lights[index], value ? 1 : 0, 0);
+	}
+
+	/**
+	 * @see Commander#lightAnalog(int, int)
+	 */
+	public void lightAnalog(int index, int value) {
+		request(lightsAnalog[index], value, 0);
+	}
+
+	/**
+	 * @see Commander#writeLED(int, boolean)
+	 */
+	public void writeLED(int led, boolean value) {
+		request(leds[led], value ? 1 : 0, 0);
+	}
+
+	private void request(Slot slot, int a, int b) {
+		synchronized (queue) {
+			if (!slot.hasPending) {
+				// while a write is in progress, the written value is about to
+				// change, so even an equal value has to be queued
+				if (!slot.writing && slot.hasWritten && slot.written[0] == a && slot.written[1] == b)
+					return;
+				slot.hasPending = true;
+				queue.add(slot);
+				queue.notifyAll();
+			}
+			slot.pending[0] = a;
+			slot.pending[1] = b;
+			slot.failures = 0;
+		}
+	}
+
+	/**
+	 * Waits until all requested values are written.
+	 */
+	public void flush() {
+		synchronized (queue) {
+			while (running && (!queue.isEmpty() || inProgress > 0)) {
+				try {
+					queue.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending values and stops the writer thread.
+	 */
+	public void close() {
+		flush();
+		synchronized (queue) {
+			running = false;
+			queue.notifyAll();
+		}
+	}
+
+	// ===== Writer =====
+
+	private void run() {
+		int[] values = new int[2];
+		while (true) {
+			Slot slot;
+			synchronized (queue) {
+				slot = null;
+				while (running && (slot = takeReady()) == null) {
+					try {
+						long wait = nextReadyIn();
+						if (wait > 0) {
+							queue.wait(wait);
+						} else {
+							queue.wait();
+						}
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (slot == null)
+					return;
+				values[0] = slot.pending[0];
+				values[1] = slot.pending[1];
+				slot.hasPending = false;
+				slot.writing = true;
+				inProgress++;
+			}
+
+			int code = Device.OK;
+			if (!slot.hasWritten || slot.written[0] != values[0] || slot.written[1] != values[1]) {
+				code = write(slot, values[0], values[1]);
+			}
+
+			synchronized (queue) {
+				if (code == Device.OK) {
+					slot.written[0] = values[0];
+					slot.written[1] = values[1];
+					slot.hasWritten = true;
+					if (slot.sibling != null) {
+						// the other mode of the light no longer holds
+						slot.sibling.hasWritten = false;
+					}
+					lastWrite.put(slot.device, System.nanoTime());
+				} else if (!slot.hasPending) {
+					// retry, unless a newer value is already queued
+					if (++slot.failures < MAX_ATTEMPTS) {
+						slot.pending[0] = values[0];
+						slot.pending[1] = values[1];
+						slot.hasPending = true;
+						slot.retryAt = System.nanoTime() + RETRY_DELAY * 1000000L;
+						queue.add(slot);
+					} else {
+						System.out.println(String.format("ActuatorStage: dropping value %d, %d of actuator %d/%d",
+								values[0], values[1], slot.kind, slot.index));
+						slot.failures = 0;
+					}
+				}
+				slot.writing = false;
+				inProgress--;
+				queue.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Removes and returns the first queued slot whose device can be written
+	 * now. Must hold the queue lock.
+	 */
+	private Slot takeReady() {
+		long now = System.nanoTime();
+		long interval = Config.actuatorMinInterval * 1000000L;
+		for (Slot slot : queue) {
+			if (slot.failures > 0 && now - slot.retryAt < 0)
+				continue;
+			Long last = lastWrite.get(slot.device);
+			if (last == null || now - last >= interval) {
+				queue.remove(slot);
+				return slot;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return milliseconds until some queued slot can be written, {@code 0}
+	 *         if the queue is empty
+	 */
+	private long nextReadyIn() {
+		if (queue.isEmpty())
+			return 0;
+		long now = System.nanoTime();
+		long interval = Config.actuatorMinInterval * 1000000L;
+		long min = Long.MAX_VALUE;
+		for (Slot slot : queue) {
+			Long last = lastWrite.get(slot.device);
+			long ready = last == null ? 0 : last + interval - now;
+			if (slot.failures > 0) {
+				ready = Math.max(ready, slot.retryAt - now);
+			}
+			min = Math.min(min, ready);
+		}
+		return Math.max(min / 1000000L, 1);
+	}
+
+	/**
+	 * @return {@link Device#OK} or one of the error codes
+	 */
+	private int write(Slot slot, int a, int b) {
+		try {
+			switch (slot.kind) {
+			case PROPULSION:
+				int code = commander.writePropulsionMotors(a, b);
+				MotorHistory history = motorHistory;
+				if (code == Device.OK && history != null) {
+					history.record(clock.getAsLong(), a, b);
+				}
+				return code;
+			case MOTOR:
+				return commander.writeMotor(slot.index, a);
+			case LIGHT:
+				return commander.light(slot.index, a != 0);
+			case LIGHT_ANALOG:
+				return commander.lightAnalog(slot.index, a);
+			case LED:
+				return commander.writeLED(slot.index, a != 0);
+			default:
+				return Device.OK;
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			return Device.IO_ERROR;
+		}
+	}
+
+}
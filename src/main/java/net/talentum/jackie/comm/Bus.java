@@ -0,0 +1,25 @@
+package net.talentum.jackie.comm;
+
+import java.io.IOException;
+
+/**
+ * I2C bus, the source of {@link BusDevice}s. Implemented for the real bus by
+ * {@link Pi4jBus} and for testing without hardware by
+ * {@link net.talentum.jackie.comm.sim.SimulatedBus}.
+ * 
+ * @author JJurM
+ */
+public interface Bus {
+
+	/**
+	 * Returns device with the given address.
+	 * 
+	 * @param address
+	 * @return
+	 * @throws IOException
+	 */
+	public BusDevice getDevice(int address) throws IOException;
+
+	public void close() throws IOException;
+
+}
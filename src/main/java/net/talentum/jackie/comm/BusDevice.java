@@ -0,0 +1,34 @@
+package net.talentum.jackie.comm;
+
+import java.io.IOException;
+
+/**
+ * Slave device on a {@link Bus}. Only the raw operations used by
+ * {@link Device} are needed.
+ * 
+ * @author JJurM
+ */
+public interface BusDevice {
+
+	/**
+	 * Writes bytes to the device.
+	 * 
+	 * @param buffer
+	 * @param offset
+	 * @param size
+	 * @throws IOException
+	 */
+	public void write(byte[] buffer, int offset, int size) throws IOException;
+
+	/**
+	 * Reads bytes from the device.
+	 * 
+	 * @param buffer
+	 * @param offset
+	 * @param size
+	 * @return number of bytes read
+	 * @throws IOException
+	 */
+	public int read(byte[] buffer, int offset, int size) throws IOException;
+
+}
@@ -0,0 +1,315 @@
+package net.talentum.jackie.comm;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+import net.talentum.jackie.system.Config;
+
+/**
+ * Owner of one I2C bus. All transfers to the devices on the bus are executed
+ * by a single thread, taking requests from one queue per {@link Priority}, so
+ * a transfer of a lower priority is started only when there are no waiting
+ * transfers of higher priorities. A transfer that has already started is not
+ * interrupted, so a motor write waits at most for one transfer in progress.
+ *
+ * <p>
+ * Callers waiting for a transfer give up after a time limit, so a device that
+ * stops responding costs them a bounded time. The scheduler copies the result
+ * only to callers that still wait.
+ * </p>
+ *
+ * <p>
+ * For every priority class, the scheduler keeps statistics of the time the
+ * requests spent in the queue and of the duration of the transfers.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class BusScheduler {
+
+	/**
+	 * Classes of transfers, from the most urgent.
+	 */
+	public enum Priority {
+		/**
+		 * Motor and light writes, start/stop
+		 */
+		MOTOR,
+		/**
+		 * Sensor reads used for control
+		 */
+		SENSOR,
+		/**
+		 * Buttons, switches and LEDs
+		 */
+		INTERFACE,
+		/**
+		 * Tests and manual transfers
+		 */
+		DIAGNOSTIC
+	}
+
+	/**
+	 * Transfer request. Requests with a future are created per transfer,
+	 * requests waited for by {@link BusScheduler#transfer} are reused by their
+	 * thread.
+	 */
+	private static class Request {
+
+		Device device;
+		byte[] command;
+		int commandLength;
+		byte[] result;
+		int offset;
+		int size;
+		long submitted;
+
+		/**
+		 * Time limit in nanoseconds since {@link #submitted}
+		 */
+		long timeout;
+
+		CompletableFuture<int[]> future;
+
+		// guarded by this
+		int code;
+		boolean done;
+		boolean abandoned;
+
+		void set(Device device, byte[] command, int commandLength, byte[] result, int offset, int size,
+				long timeout) {
+			this.device = device;
+			this.command = command;
+			this.commandLength = commandLength;
+			this.result = result;
+			this.offset = offset;
+			this.size = size;
+			this.timeout = timeout;
+			submitted = System.nanoTime();
+			done = false;
+		}
+
+	}
+
+	/**
+	 * Latency statistics of one priority class.
+	 */
+	private static class Statistics {
+
+		long count;
+		long totalWait;
+		long maxWait;
+		long totalDuration;
+		long maxDuration;
+
+		void record(long wait, long duration) {
+			count++;
+			totalWait += wait;
+			maxWait = Math.max(maxWait, wait);
+			totalDuration += duration;
+			maxDuration = Math.max(maxDuration, duration);
+		}
+
+	}
+
+	private static final Priority[] PRIORITIES = Priority.values();
+
+	// guarded by queues
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<Request>[] queues = new ArrayDeque[PRIORITIES.length];
+
+	// guarded by statistics
+	private final Statistics[] statistics = new Statistics[PRIORITIES.length];
+
+	/**
+	 * Reusable request of each calling thread
+	 */
+	private final ThreadLocal<Request> threadRequest = ThreadLocal.withInitial(Request::new);
+
+	/**
+	 * Buffer for reading, results are copied to the caller only if it still
+	 * waits
+	 */
+	private byte[] buffer = new byte[32];
+
+	private final Thread thread;
+
+	public BusScheduler() {
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			queues[i] = new ArrayDeque<Request>();
+			statistics[i] = new Statistics();
+		}
+		thread = new Thread(this::run, "I2CBusThread");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues transfer to the given device.
+	 *
+	 * @param device
+	 * @param priority
+	 * @param size
+	 *            number of bytes to read
+	 * @param bytes
+	 *            bytes of the command to write
+	 * @return future completed with the result of
+	 *         {@link Device#transfer(int, byte...)}
+	 */
+	public CompletableFuture<int[]> submit(Device device, Priority priority, int size, byte... bytes) {
+		Request request = new Request();
+		request.set(device, bytes, bytes.length, null, 0, size, Config.i2cTimeout * 1000L);
+		request.future = new CompletableFuture<int[]>();
+		enqueue(request, priority);
+		return request.future;
+	}
+
+	/**
+	 * Executes the transfer and waits for it at most the given time. After
+	 * that the request is abandoned: it's skipped if it hasn't started yet,
+	 * and its result is never copied into the buffer.
+	 *
+	 * @see Device#transfer(Priority, byte[], int, byte[], int, int)
+	 * @param timeout
+	 *            in nanoseconds
+	 * @return result code of the transfer, or {@link Device#TIMEOUT}
+	 */
+	int transfer(Device device, Priority priority, byte[] command, int commandLength, byte[] result, int offset,
+			int size, long timeout) {
+		Request request = threadRequest.get();
+		request.set(device, command, commandLength, result, offset, size, timeout);
+		enqueue(request, priority);
+
+		long deadline = request.submitted + timeout;
+		synchronized (request) {
+			while (!request.done) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+					request.abandoned = true;
+					// the request may still be in the queue, don't reuse it
+					threadRequest.set(new Request());
+					return Device.TIMEOUT;
+				}
+				try {
+					request.wait(remaining / 1000000, (int) (remaining % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return request.code;
+		}
+	}
+
+	private void enqueue(Request request, Priority priority) {
+		synchronized (queues) {
+			queues[priority.ordinal()].add(request);
+			queues.notify();
+		}
+	}
+
+	/**
+	 * @return {@code true}, if called from the thread owning the bus
+	 */
+	public boolean isOwnerThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	private void run() {
+		while (true) {
+			Request request = null;
+			int p = 0;
+			synchronized (queues) {
+				while (request == null) {
+					for (p = 0; p < queues.length; p++) {
+						request = queues[p].poll();
+						if (request != null)
+							break;
+					}
+					if (request == null) {
+						try {
+							queues.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}
+
+			synchronized (request) {
+				if (request.abandoned)
+					continue;
+			}
+
+			if (buffer.length < request.size) {
+				buffer = new byte[request.size];
+			}
+			long start = System.nanoTime();
+			int code = Device.IO_ERROR;
+			try {
+				code = request.device.execute(request.command, request.commandLength, buffer, 0, request.size,
+						request.submitted + request.timeout);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			long end = System.nanoTime();
+
+			synchronized (statistics) {
+				statistics[p].record(start - request.submitted, end - start);
+			}
+
+			if (request.future != null) {
+				int[] result = null;
+				if (code == Device.OK) {
+					result = new int[request.size];
+					for (int i = 0; i < request.size; i++) {
+						result[i] = buffer[i] & 0xFF;
+					}
+				}
+				request.future.complete(result);
+			} else {
+				synchronized (request) {
+					if (!request.abandoned) {
+						if (request.size > 0) {
+							System.arraycopy(buffer, 0, request.result, request.offset, request.size);
+						}
+						request.code = code;
+						request.done = true;
+						request.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Clears the statistics.
+	 */
+	public void resetStatistics() {
+		synchronized (statistics) {
+			for (int i = 0; i < statistics.length; i++) {
+				statistics[i] = new Statistics();
+			}
+		}
+	}
+
+	/**
+	 * Returns the statistics as text, one line per priority class, with times
+	 * in microseconds.
+	 *
+	 * @return
+	 */
+	public String getStatistics() {
+		StringBuilder sb = new StringBuilder();
+		synchronized (statistics) {
+			for (int i = 0; i < statistics.length; i++) {
+				Statistics s = statistics[i];
+				long n = Math.max(s.count, 1);
+				sb.append(String.format("%-10s count %8d, wait avg %6d max %7d, transfer avg %6d max %7d%n",
+						PRIORITIES[i], s.count, s.totalWait / n / 1000, s.maxWait / 1000,
+						s.totalDuration / n / 1000, s.maxDuration / 1000));
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -3,79 +3,204 @@ package net.talentum.jackie.comm;
 import java.io.PrintWriter;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+
 import net.talentum.jackie.system.Config;
 
-public class ButtonManager implements Runnable{
+/**
+ * Performs the commands assigned to the buttons ({@code params/buttons}) when
+ * they are pressed.
+ *
+ * <p>
+ * The button group is read only when the slave signals a change on the
+ * interrupt line, a GPIO pin given by {@code params/buttons/interruptPin}
+ * (pi4j numbering). The slave pulls the line low while there is a change not
+ * read yet and releases it after the group is read (command 18), so nothing
+ * is transferred over the bus while no button is pressed. Without the
+ * interrupt line, the group is polled every
+ * {@code params/buttons/pollPeriod} milliseconds. The line is not wired by
+ * default ({@code interruptPin} is {@code -1}), so it has to be connected and
+ * driven by the slave firmware before polling stops.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class ButtonManager implements Runnable {
+
+	/**
+	 * LED signaling a performed command
+	 */
+	private static final int LED = 4;
+
+	/**
+	 * Time the LED is on after a command, in milliseconds
+	 */
+	private static final long LED_TIME = 100;
 
 	private AtomicBoolean running = new AtomicBoolean(false);
 	private Thread thread;
-	
+
 	private Commander commander;
-	
+
 	private TextInputProcessor textInputProcessor;
-	
+
 	private String[] commands;
-	
+
+	/**
+	 * Last read states, {@code null} until the first successful read
+	 */
 	private boolean[] buttonStates;
-	
+
+	private GpioController gpio;
+	private GpioPinDigitalInput interruptPin;
+
+	/**
+	 * Whether the slave signaled a change, guarded by this
+	 */
+	private boolean changed = false;
+
 	public ButtonManager(Commander commander, TextInputProcessor textInputProcessor) {
-		thread = new Thread("buttonManagerThread");
-		
+		thread = new Thread(this, "ButtonManager");
+		thread.setDaemon(true);
+
 		this.commander = commander;
-		
+
 		this.textInputProcessor = textInputProcessor;
-		
-		commands = new String[]{Config.get().getString("params/buttons/b1"), Config.get().getString("params/buttons/b1"), Config.get().getString("params/buttons/b1")};
-		
+
+		commands = new String[] { Config.get().getString("params/buttons/b1"),
+				Config.get().getString("params/buttons/b2"), Config.get().getString("params/buttons/b3") };
+
+		// if this fails, the first successful read only records the states,
+		// so that buttons held at start don't perform their commands
 		buttonStates = commander.readMultipleButtons(2);
-		}
-	
+	}
+
 	public void start() {
-		if(running.get()) 
+		if (!running.compareAndSet(false, true))
 			return;
-		else
-			running.set(true);
-			thread.start();
-		
+		provisionInterrupt();
+		thread.start();
 	}
-	
+
 	public void stop() {
-		if(!running.get()) 
+		if (!running.compareAndSet(true, false))
 			return;
-		else {
-			running.set(false);
-			commander.writeLED(4, false);
-			thread.interrupt();
+		thread.interrupt();
+		if (interruptPin != null) {
+			interruptPin.removeAllListeners();
+			gpio.unprovisionPin(interruptPin);
 		}
+		commander.writeLED(LED, false);
 	}
-	
+
+	/**
+	 * Starts listening on the interrupt line, if there is one.
+	 */
+	private void provisionInterrupt() {
+		int pin = Config.get().getInt("params/buttons/interruptPin", -1);
+		if (pin < 0)
+			return;
+		try {
+			gpio = GpioFactory.getInstance();
+			interruptPin = gpio.provisionDigitalInputPin(RaspiPin.getPinByAddress(pin), "buttons",
+					PinPullResistance.PULL_UP);
+			interruptPin.addListener((GpioPinListenerDigital) event -> {
+				if (event.getState().isLow()) {
+					signal();
+				}
+			});
+			if (interruptPin.isLow()) {
+				signal();
+			}
+		} catch (RuntimeException | UnsatisfiedLinkError e) {
+			System.out.println("ButtonManager: Interrupt line not available, polling the buttons");
+			interruptPin = null;
+		}
+	}
+
+	/**
+	 * Called from the GPIO thread when the slave signals a change.
+	 */
+	private synchronized void signal() {
+		changed = true;
+		notifyAll();
+	}
+
 	public void run() {
-		while(running.get()) {
+		long ledOff = 0;
+		while (running.get()) {
+			boolean read;
 			try {
-				Thread.sleep(50);
-				commander.writeLED(4, false);
-				Thread.sleep(50);
+				synchronized (this) {
+					if (!changed) {
+						// wait(0) waits until signaled
+						long timeout = 0;
+						if (interruptPin == null) {
+							timeout = Config.get().getInt("params/buttons/pollPeriod", 100);
+						}
+						if (ledOff != 0) {
+							long remaining = Math.max(1, (ledOff - System.nanoTime()) / 1000000);
+							timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+						}
+						wait(timeout);
+					}
+					read = changed || interruptPin == null;
+					changed = false;
+				}
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				break;
+			}
+
+			if (ledOff != 0 && System.nanoTime() - ledOff >= 0) {
+				commander.writeLED(LED, false);
+				ledOff = 0;
+			}
+
+			if (read) {
+				if (evaluate(commander.readMultipleButtons(2))) {
+					commander.writeLED(LED, true);
+					ledOff = System.nanoTime() + LED_TIME * 1000000;
+				}
+				// another change may have come before the read
+				if (interruptPin != null && interruptPin.isLow()) {
+					signal();
+				}
 			}
-			evaluate(commander.readMultipleButtons(2));
 		}
 	}
 
-	private void evaluate(boolean[] buttons) {
-		for(int i = 0; i < 3; i++) {
-			if(buttons[i] && !buttonStates[i])
+	/**
+	 * Performs commands of the newly pressed buttons.
+	 *
+	 * @param buttons
+	 *            states read, or {@code null} if the read failed
+	 * @return {@code true}, if any command was performed
+	 */
+	private boolean evaluate(boolean[] buttons) {
+		if (buttons == null)
+			return false;
+		if (buttonStates == null) {
+			buttonStates = buttons;
+			return false;
+		}
+		boolean performed = false;
+		for (int i = 0; i < 3; i++) {
+			if (buttons[i] && !buttonStates[i]) {
 				try {
 					textInputProcessor.performCommand(commands[i], null, new PrintWriter(System.out));
-					commander.writeLED(4, true);
+					performed = true;
 				} catch (StreamCloseRequest e) {
 					e.printStackTrace();
-				} 
+				}
+			}
 		}
 		buttonStates = buttons;
+		return performed;
 	}
-	
-	public void getCommand() {
-		
-	}
+
 }
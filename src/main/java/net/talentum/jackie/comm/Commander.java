@@ -1,5 +1,7 @@
 package net.talentum.jackie.comm;
 
+import net.talentum.jackie.comm.BusScheduler.Priority;
+import net.talentum.jackie.system.Config;
 import net.talentum.jackie.tools.MathTools;
 
 /**
@@ -36,10 +38,42 @@ public class Commander {
 
 	public final I2CCommunicator i2c;
 
+	/**
+	 * Buffers for transfers that don't allocate, one set per calling thread.
+	 */
+	private static class Buffers {
+		final byte[] command = new byte[4];
+		final byte[] result = new byte[16];
+	}
+
+	private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+	/**
+	 * Values streamed by the board, used instead of I2C reads while they are
+	 * fresh; {@code null} if not streaming
+	 */
+	private volatile SensorCache sensorCache;
+
 	public Commander(I2CCommunicator i2c) {
 		this.i2c = i2c;
 	}
 
+	/**
+	 * Sets the cache of streamed sensor values. The read methods return the
+	 * cached values if they are not older than {@link Config#sensorMaxAge}, and
+	 * fall back to I2C otherwise.
+	 * 
+	 * @param sensorCache
+	 *            the cache, or {@code null} to always read through I2C
+	 */
+	public void setSensorCache(SensorCache sensorCache) {
+		this.sensorCache = sensorCache;
+	}
+
+	private static long maxAge() {
+		return Config.sensorMaxAge * 1000000L;
+	}
+
 	// ===== Helper methods =====
 
 	protected byte cmd(int type, int subcommand) {
@@ -62,6 +96,14 @@ public class Commander {
 		return num;
 	}
 
+	protected int join(byte[] arr, int length) {
+		int num = 0;
+		for (int i = 0; i < length; i++) {
+			num = (num << 8) | (arr[i] & 0xFF);
+		}
+		return num;
+	}
+
 	// ===== Public methods =====
 
 	/**
@@ -101,14 +143,14 @@ public class Commander {
 	 * Sends start command to all I2C devices.
 	 */
 	public void start() {
-		i2c.each(d -> d.transfer(0, cmd(0x02, 1)));
+		i2c.each(d -> d.transfer(Priority.MOTOR, 0, cmd(0x02, 1)));
 	}
 
 	/**
 	 * Sends stop command to all I2C devices.
 	 */
 	public void stop() {
-		i2c.each(d -> d.transfer(0, cmd(0x02, 0)));
+		i2c.each(d -> d.transfer(Priority.MOTOR, 0, cmd(0x02, 0)));
 	}
 
 	/**
@@ -118,10 +160,13 @@ public class Commander {
 	 *            index of the LED (0-7)
 	 * @param value
 	 *            boolean value to write
-	 * @param
+	 * @return {@link Device#OK} or one of the error codes
 	 */
-	public void writeLED(int led, boolean value) {
-		i2c.deviceC.transfer(0, cmd(0x08, led), b(value));
+	public int writeLED(int led, boolean value) {
+		Buffers buf = buffers.get();
+		buf.command[0] = cmd(0x08, led);
+		buf.command[1] = b(value);
+		return i2c.deviceC.transfer(Priority.INTERFACE, buf.command, 2, null, 0, 0);
 	}
 
 	/**
@@ -131,7 +176,7 @@ public class Commander {
 	 *            index of the LED (0-7)
 	 */
 	public void blinkLED(int led) {
-		i2c.deviceC.transfer(0, cmd(0x09, led));
+		i2c.deviceC.transfer(Priority.INTERFACE, 0, cmd(0x09, led));
 	}
 
 	/**
@@ -141,9 +186,13 @@ public class Commander {
 	 *            index of the motor
 	 * @param value
 	 *            value (0-180)
+	 * @return {@link Device#OK} or one of the error codes
 	 */
-	public void writeMotor(int index, int value) {
-		i2c.deviceA.transfer(0, cmd(0x0A, index), b(value));
+	public int writeMotor(int index, int value) {
+		Buffers buf = buffers.get();
+		buf.command[0] = cmd(0x0A, index);
+		buf.command[1] = b(value);
+		return i2c.deviceA.transfer(Priority.MOTOR, buf.command, 2, null, 0, 0);
 	}
 
 	/**
@@ -153,11 +202,16 @@ public class Commander {
 	 *            motor controlling the left wheel (-90 to 90)
 	 * @param right
 	 *            motor controlling the right wheel (-90 to 90)
+	 * @return {@link Device#OK} or one of the error codes
 	 */
-	public void writePropulsionMotors(int left, int right) {
+	public int writePropulsionMotors(int left, int right) {
 		left = 90 + left;
 		right = 90 + right;
-		i2c.deviceA.transfer(0, cmd(0x0B, 0), b(left), b(right));
+		Buffers buf = buffers.get();
+		buf.command[0] = cmd(0x0B, 0);
+		buf.command[1] = b(left);
+		buf.command[2] = b(right);
+		return i2c.deviceA.transfer(Priority.MOTOR, buf.command, 3, null, 0, 0);
 	}
 
 	/**
@@ -165,10 +219,11 @@ public class Commander {
 	 * 
 	 * @param both
 	 *            value for both right and left motors (0-90 to 90)
+	 * @return {@link Device#OK} or one of the error codes
 	 * @see #writePropulsionMotors(int, int)
 	 */
-	public void writePropulsionMotors(int both) {
-		writePropulsionMotors(both, both);
+	public int writePropulsionMotors(int both) {
+		return writePropulsionMotors(both, both);
 	}
 
 	/**
@@ -196,10 +251,14 @@ public class Commander {
 	 *            index of the light
 	 * @param value
 	 *            {@code true =} on, {@code false =} off
+	 * @return {@link Device#OK} or one of the error codes
 	 */
-	public void light(int index, boolean value) {
+	public int light(int index, boolean value) {
 		Device d = getDeviceLight(index);
-		d.transfer(0, cmd(12, index), b(value));
+		Buffers buf = buffers.get();
+		buf.command[0] = cmd(12, index);
+		buf.command[1] = b(value);
+		return d.transfer(Priority.MOTOR, buf.command, 2, null, 0, 0);
 	}
 
 	/**
@@ -209,10 +268,14 @@ public class Commander {
 	 *            index of the light
 	 * @param value
 	 *            analog value (0-255)
+	 * @return {@link Device#OK} or one of the error codes
 	 */
-	public void lightAnalog(int index, int value) {
+	public int lightAnalog(int index, int value) {
 		Device d = getDeviceLight(index);
-		d.transfer(0, cmd(13, index), b(value));
+		Buffers buf = buffers.get();
+		buf.command[0] = cmd(13, index);
+		buf.command[1] = b(value);
+		return d.transfer(Priority.MOTOR, buf.command, 2, null, 0, 0);
 	}
 
 	/**
@@ -222,21 +285,37 @@ public class Commander {
 	 *            group of the button
 	 * @param index
 	 *            index of the button
-	 * @return {@code true} if the button is pressed
+	 * @return {@code true} if the button is pressed, {@code false} if not or
+	 *         if the transfer failed
 	 */
 	public boolean readButton(int group, int index) {
-		int[] res = i2c.deviceB.transfer(1, cmd(0x10 + (group & 0x01), index));
-		return res[0] != 0;
+		SensorCache cache = sensorCache;
+		if (cache != null && cache.hasButtons(group & 0x01, maxAge())) {
+			return (cache.getButtons(group & 0x01) & (1 << index)) != 0;
+		}
+		int[] res = i2c.deviceB.transfer(Priority.INTERFACE, 1, cmd(0x10 + (group & 0x01), index));
+		return res != null && res[0] != 0;
 	}
 
 	/**
 	 * Reads all buttons in a group. Returns one byte for each button.
 	 * 
 	 * @param group
-	 * @return
+	 * @return values of the buttons, or {@code null} if the transfer failed
 	 */
 	public boolean[] readMultipleButtons(int group) {
-		int[] res = i2c.deviceC.transfer(3, cmd(0x12, group & 0x01));
+		SensorCache cache = sensorCache;
+		if (cache != null && cache.hasButtons(group & 0x01, maxAge())) {
+			int bits = cache.getButtons(group & 0x01);
+			boolean[] values = new boolean[3];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = (bits & (1 << i)) != 0;
+			}
+			return values;
+		}
+		int[] res = i2c.deviceC.transfer(Priority.INTERFACE, 3, cmd(0x12, group & 0x01));
+		if (res == null)
+			return null;
 		boolean[] values = new boolean[res.length];
 		for (int i = 0; i < res.length; i++) {
 			values[i] = res[i] == 0;
@@ -249,11 +328,15 @@ public class Commander {
 	 * 
 	 * @param index
 	 *            index of the switch
-	 * @return
+	 * @return value of the switch, {@code false} if the transfer failed
 	 */
 	public boolean readSwitch(int index) {
-		int[] res = i2c.deviceB.transfer(1, cmd(0x13, index));
-		return res[0] != 0;
+		SensorCache cache = sensorCache;
+		if (cache != null && cache.hasSwitches(maxAge())) {
+			return (cache.getSwitches() & (1 << index)) != 0;
+		}
+		int[] res = i2c.deviceB.transfer(Priority.INTERFACE, 1, cmd(0x13, index));
+		return res != null && res[0] != 0;
 	}
 
 	/**
@@ -261,14 +344,22 @@ public class Commander {
 	 * 
 	 * @param index
 	 *            index of the ultrasonic sensor
-	 * @return distance in centimeters
+	 * @return distance in centimeters, or {@code NaN} if the transfer failed
 	 */
 	public double readUltrasonicSensor(int index) {
-		int[] res = i2c.deviceA.transfer(2, cmd(0x14, index));
-		if (res == null) {
-			return 500;
+		SensorCache cache = sensorCache;
+		if (cache != null) {
+			double distance = cache.getDistance(index, maxAge());
+			if (!Double.isNaN(distance))
+				return distance;
+		}
+		Buffers buf = buffers.get();
+		buf.command[0] = cmd(0x14, index);
+		if (i2c.deviceA.transfer(Priority.SENSOR, buf.command, 1, buf.result, 0, 2,
+				Config.i2cUltrasonicTimeout) != Device.OK) {
+			return Double.NaN;
 		}
-		int pulse = join(res);
+		int pulse = join(buf.result, 2);
 		return pulse / 58.138;
 	}
 
@@ -277,11 +368,43 @@ public class Commander {
 	 * 
 	 * @param index
 	 *            index of the infrared sensor
-	 * @return measured analog value (0-1023)
+	 * @return measured analog value (0-1023), or {@code -1} if the transfer
+	 *         failed
 	 */
 	public int readInfraredSensor(int index) {
-		int[] res = i2c.deviceA.transfer(2, (byte) ((21 << S) + (index & 0x07)));
-		return join(res);
+		Buffers buf = buffers.get();
+		buf.command[0] = (byte) ((21 << S) + (index & 0x07));
+		if (i2c.deviceA.transfer(Priority.SENSOR, buf.command, 1, buf.result, 0, 2) != Device.OK) {
+			return -1;
+		}
+		return join(buf.result, 2);
+	}
+
+	/**
+	 * Reads values of the infrared line sensor.
+	 * 
+	 * @param values
+	 *            array for {@link SensorCache#INFRARED_LINE_SENSORS} values
+	 *            (0-255)
+	 * @return {@code true}, if the values have been read
+	 */
+	public boolean readInfraredLineSensor(int[] values) {
+		SensorCache cache = sensorCache;
+		if (cache != null) {
+			long time = cache.getInfraredLine(values);
+			if (time != SensorCache.NEVER && System.nanoTime() - time <= maxAge())
+				return true;
+		}
+		Buffers buf = buffers.get();
+		buf.command[0] = cmd(22, 0);
+		if (i2c.deviceA.transfer(Priority.SENSOR, buf.command, 1, buf.result, 0,
+				SensorCache.INFRARED_LINE_SENSORS) != Device.OK) {
+			return false;
+		}
+		for (int i = 0; i < SensorCache.INFRARED_LINE_SENSORS; i++) {
+			values[i] = buf.result[i] & 0xFF;
+		}
+		return true;
 	}
 
 	// ===== MPU-6050 =====
@@ -290,10 +413,12 @@ public class Commander {
 	 * Reads acceleration data from MPU-6050. Returns array containing 3 values
 	 * - acceleration data of axes {@code x}, {@code y} and {@code z}.
 	 * 
-	 * @return array of length 3
+	 * @return array of length 3, or {@code null} if the transfer failed
 	 */
 	public int[] getAcceleration() {
-		int[] res = i2c.mpu6050.transfer(6, (byte) MPU6050.REGISTER_ACCEL);
+		int[] res = i2c.mpu6050.transfer(Priority.SENSOR, 6, (byte) MPU6050.REGISTER_ACCEL);
+		if (res == null)
+			return null;
 		int[] accel = new int[3];
 		accel[0] = (res[0] << 8) | res[1]; // X
 		accel[1] = (res[2] << 8) | res[3]; // Y
@@ -305,10 +430,12 @@ public class Commander {
 	 * Reads gyroscope data from MPU-6050. Returns array containing 3 values -
 	 * gyro data of axes {@code x}, {@code y} and {@code z}.
 	 * 
-	 * @return
+	 * @return array of length 3, or {@code null} if the transfer failed
 	 */
 	public int[] getGyro() {
-		int[] res = i2c.mpu6050.transfer(14, (byte) MPU6050.REGISTER_GYRO);
+		int[] res = i2c.mpu6050.transfer(Priority.SENSOR, 14, (byte) MPU6050.REGISTER_GYRO);
+		if (res == null)
+			return null;
 		int[] gyro = new int[3];
 		gyro[0] = (res[0] << 8) | res[1]; // X
 		gyro[1] = (res[2] << 8) | res[3]; // Y
@@ -317,13 +444,18 @@ public class Commander {
 	}
 
 	/**
-	 * Reads gyroscope data for Z-axis rotation.
+	 * Reads gyroscope data for Z-axis rotation, without allocating.
 	 * 
-	 * @return
+	 * @return signed raw value ({@link MPU6050#GYRO_SENSITIVITY} per degree per
+	 *         second), or {@link Integer#MIN_VALUE} if the transfer failed
 	 */
 	public int getGyroZ() {
-		int[] res = i2c.mpu6050.transfer(14, (byte) MPU6050.REGISTER_GYRO_Z);
-		return join(res);
+		Buffers buf = buffers.get();
+		buf.command[0] = (byte) MPU6050.REGISTER_GYRO_Z;
+		if (i2c.mpu6050.transfer(Priority.SENSOR, buf.command, 1, buf.result, 0, 2) != Device.OK) {
+			return Integer.MIN_VALUE;
+		}
+		return (short) join(buf.result, 2);
 	}
 
 }
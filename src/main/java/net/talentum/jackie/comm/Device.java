@@ -1,21 +1,43 @@
 package net.talentum.jackie.comm;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.pi4j.io.i2c.I2CDevice;
+import net.talentum.jackie.comm.BusScheduler.Priority;
+import net.talentum.jackie.system.Config;
 
 /**
- * A class for manipulating with I2C devices. Its read/write methods are
- * synchronized in order to offer a transfer not interfered by other threads.
+ * A class for manipulating with I2C devices. When the device belongs to a bus
+ * with a {@link BusScheduler}, transfers are executed by the thread owning the
+ * bus, in order of their {@link Priority}. Otherwise they are synchronized
+ * per device.
  * 
  * @author JJurM
  * @see I2CCommunicator
  */
 public class Device {
 
-	I2CDevice device;
+	BusDevice device;
 
-	public Device(I2CDevice device) {
+	/**
+	 * Scheduler of the bus, set by {@link I2CCommunicator}
+	 */
+	BusScheduler scheduler;
+
+	// result codes
+	public static final int OK = 0;
+	public static final int IO_ERROR = -1;
+	public static final int SHORT_READ = -2;
+	public static final int TIMEOUT = -3;
+
+	// written while holding the lock of this device
+	private volatile long errors = 0;
+	private volatile long retries = 0;
+	// written by the callers
+	private final AtomicLong timeouts = new AtomicLong();
+
+	public Device(BusDevice device) {
 		this.device = device;
 	}
 
@@ -26,14 +48,26 @@ public class Device {
 	 *            bytes of the command to write
 	 * @see I2CCommunicator
 	 */
-	public synchronized void write(byte... bytes) {
+	public void write(byte... bytes) {
 		transfer(0, bytes);
 	}
 
+	/**
+	 * Transfer with {@link Priority#DIAGNOSTIC} priority.
+	 * 
+	 * @see #transfer(Priority, int, byte...)
+	 */
+	public int[] transfer(int size, byte... bytes) {
+		return transfer(Priority.DIAGNOSTIC, size, bytes);
+	}
+
 	/**
 	 * Writes command and receives result. The result bytes are converted from
-	 * signed bytes to integers.
+	 * signed bytes to integers. Waits until the transfer is executed, but at
+	 * most {@link Config#i2cTimeout}.
 	 * 
+	 * @param priority
+	 *            priority of the transfer on the bus
 	 * @param size
 	 *            number of bytes to read, nothing will be read when
 	 *            {@code size == 0}
@@ -44,44 +78,156 @@ public class Device {
 	 *         {@code size == 0}.
 	 * @see I2CCommunicator
 	 */
-	public synchronized int[] transfer(int size, byte... bytes) {
+	public int[] transfer(Priority priority, int size, byte... bytes) {
+		byte[] arr = new byte[size];
+		if (transfer(priority, bytes, bytes.length, arr, 0, size) != OK)
+			return null;
+		return toInts(arr);
+	}
+
+	/**
+	 * Writes command and reads the result into the given buffer, without
+	 * allocating. The transfer is retried up to {@link Config#i2cRetries}
+	 * times. The caller waits at most {@link Config#i2cTimeout} microseconds;
+	 * after that the request is abandoned and the buffer is not touched
+	 * anymore.
+	 * 
+	 * @param priority
+	 *            priority of the transfer on the bus
+	 * @param command
+	 *            bytes of the command to write
+	 * @param commandLength
+	 *            number of bytes of the command
+	 * @param result
+	 *            buffer for the read bytes, may be {@code null} if
+	 *            {@code size == 0}
+	 * @param offset
+	 *            offset in the buffer
+	 * @param size
+	 *            number of bytes to read
+	 * @return {@link #OK} or one of the error codes
+	 */
+	public int transfer(Priority priority, byte[] command, int commandLength, byte[] result, int offset, int size) {
+		return transfer(priority, command, commandLength, result, offset, size, Config.i2cTimeout);
+	}
+
+	/**
+	 * Like {@link #transfer(Priority, byte[], int, byte[], int, int)}, but
+	 * with a time limit given by the caller, for commands that take the slave
+	 * longer than {@link Config#i2cTimeout}.
+	 * 
+	 * @param timeout
+	 *            time limit in microseconds
+	 * @return {@link #OK} or one of the error codes
+	 */
+	public int transfer(Priority priority, byte[] command, int commandLength, byte[] result, int offset, int size,
+			int timeout) {
+		if (scheduler == null || scheduler.isOwnerThread()) {
+			return execute(command, commandLength, result, offset, size, System.nanoTime() + timeout * 1000L);
+		}
+		int code = scheduler.transfer(this, priority, command, commandLength, result, offset, size,
+				timeout * 1000L);
+		if (code == TIMEOUT) {
+			timeouts.incrementAndGet();
+		}
+		return code;
+	}
+
+	/**
+	 * Queues the transfer without waiting for it. Without a scheduler, the
+	 * transfer is executed immediately.
+	 * 
+	 * @see #transfer(Priority, int, byte...)
+	 */
+	public CompletableFuture<int[]> transferAsync(Priority priority, int size, byte... bytes) {
+		if (scheduler == null) {
+			return CompletableFuture.completedFuture(execute(size, bytes));
+		}
+		return scheduler.submit(this, priority, size, bytes);
+	}
+
+	/**
+	 * Executes the transfer in the calling thread.
+	 */
+	int[] execute(int size, byte... bytes) {
+		byte[] arr = new byte[size];
+		if (execute(bytes, bytes.length, arr, 0, size, System.nanoTime() + Config.i2cTimeout * 1000L) != OK)
+			return null;
+		return toInts(arr);
+	}
 
+	private static int[] toInts(byte[] arr) {
+		int[] res = new int[arr.length];
+		for (int i = 0; i < arr.length; i++) {
+			res[i] = arr[i] & 0xFF;
+		}
+		return res;
+	}
+
+	/**
+	 * Executes the transfer in the calling thread, with retries. Retrying stops
+	 * when the time limit of the caller is exceeded.
+	 * 
+	 * @param deadline
+	 *            {@link System#nanoTime()} after which no retry is attempted
+	 * @see #transfer(Priority, byte[], int, byte[], int, int, int)
+	 */
+	synchronized int execute(byte[] command, int commandLength, byte[] result, int offset, int size, long deadline) {
+		int code = OK;
+		for (int attempt = 0; attempt <= Config.i2cRetries; attempt++) {
+			if (attempt > 0) {
+				if (System.nanoTime() - deadline > 0)
+					break;
+				retries++;
+			}
+			code = executeOnce(command, commandLength, result, offset, size);
+			if (code == OK)
+				return OK;
+			errors++;
+		}
+		return code;
+	}
+
+	private int executeOnce(byte[] command, int commandLength, byte[] result, int offset, int size) {
 		try {
 			// write command
-			device.write(bytes);
+			device.write(command, 0, commandLength);
 
 			// check if it is expected to read
 			if (size > 0) {
-
-				// create byte array of desired size, for reading
-				byte[] arr = new byte[size];
-
-				// read bytes
-				int read = device.read(arr, 0, size);
-
+				int read = device.read(result, offset, size);
 				if (read != size) {
-					// something went wrong
-					throw new IOException("Received wrong number of bytes");
+					return SHORT_READ;
 				}
-
-				// create array of integers and convert bytes to integers
-				int[] res = new int[size];
-				for (int i = 0; i < size; i++) {
-					res[i] = arr[i] & 0xFF;
-				}
-
-				return res;
-			} else {
-				return new int[0];
 			}
-
+			return OK;
 		} catch (IOException e) {
-			// ignore error writing to device
-			return null;
+			return IO_ERROR;
 		}
 	}
 
-	I2CDevice getI2CDevice() {
+	/**
+	 * @return number of failed attempts
+	 */
+	public long getErrorCount() {
+		return errors;
+	}
+
+	/**
+	 * @return number of repeated attempts
+	 */
+	public long getRetryCount() {
+		return retries;
+	}
+
+	/**
+	 * @return number of transfers abandoned by the caller after the time limit
+	 */
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+
+	BusDevice getBusDevice() {
 		return device;
 	}
 
@@ -6,7 +6,6 @@ import java.util.Map;
 import java.util.function.Consumer;
 
 import com.pi4j.io.i2c.I2CBus;
-import com.pi4j.io.i2c.I2CFactory;
 import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
 
 /**
@@ -181,7 +180,12 @@ import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
  */
 public class I2CCommunicator {
 
-	protected I2CBus bus;
+	protected Bus bus;
+
+	/**
+	 * Owner of the bus, executes transfers of all devices
+	 */
+	public final BusScheduler scheduler = new BusScheduler();
 
 	public Device deviceA;
 	public Device deviceB;
@@ -192,11 +196,23 @@ public class I2CCommunicator {
 
 	public Map<String, Device> deviceMap = new HashMap<String, Device>();
 
+	/**
+	 * Creates communicator on the hardware bus.
+	 */
 	public I2CCommunicator() {
-		try {
+		this(openHardwareBus());
+	}
 
-			// get i2c bus
-			bus = I2CFactory.getInstance(I2CBus.BUS_1);
+	/**
+	 * Creates communicator on the given bus.
+	 * 
+	 * @param bus
+	 */
+	public I2CCommunicator(Bus bus) {
+		this.bus = bus;
+		if (bus == null)
+			return;
+		try {
 
 			// create predefined devices
 			deviceA = new Device(bus.getDevice(0x04));
@@ -205,6 +221,9 @@ public class I2CCommunicator {
 			mpu6050 = new MPU6050(bus.getDevice(0x68));
 
 			devices = new Device[] { deviceA, deviceB, deviceC };
+			for (Device device : new Device[] { deviceA, deviceB, deviceC, mpu6050 }) {
+				device.scheduler = scheduler;
+			}
 
 			deviceMap.put("a", deviceA);
 			deviceMap.put("b", deviceB);
@@ -213,8 +232,17 @@ public class I2CCommunicator {
 
 			mpu6050.wake();
 
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static Bus openHardwareBus() {
+		try {
+			return new Pi4jBus(I2CBus.BUS_1);
 		} catch (IOException | UnsupportedBusNumberException e) {
 			e.printStackTrace();
+			return null;
 		}
 	}
 
@@ -1,7 +1,5 @@
 package net.talentum.jackie.comm;
 
-import com.pi4j.io.i2c.I2CDevice;
-
 /**
  * Class for MPU-6050 accelerometer and gyroscope sensor.
  * 
@@ -15,8 +13,14 @@ public class MPU6050 extends Device {
 	public static final int REGISTER_GYRO_X = 0x43;
 	public static final int REGISTER_GYRO_Y = 0x45;
 	public static final int REGISTER_GYRO_Z = 0x47;
+
+	/**
+	 * Raw gyroscope value per degree per second, in the default full scale
+	 * range of &plusmn;250 &deg;/s
+	 */
+	public static final double GYRO_SENSITIVITY = 131;
 	
-	public MPU6050(I2CDevice device) {
+	public MPU6050(BusDevice device) {
 		super(device);
 	}
 
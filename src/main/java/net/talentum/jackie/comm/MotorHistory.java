@@ -0,0 +1,103 @@
+package net.talentum.jackie.comm;
+
+/**
+ * Short history of the values written to the propulsion motors, with the
+ * times of the writes. Values are the ones passed to
+ * {@link Commander#writePropulsionMotors(int, int)}, {@code 0} meaning
+ * stopped. Used to reconstruct the motion of the robot over a past interval.
+ *
+ * <p>
+ * The history is a preallocated ring buffer, older entries are overwritten.
+ * Times must be recorded in non-decreasing order.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class MotorHistory {
+
+	/**
+	 * Receiver of the intervals of constant motor values.
+	 */
+	public interface SegmentConsumer {
+
+		/**
+		 * @param start
+		 *            start of the interval
+		 * @param end
+		 *            end of the interval
+		 * @param left
+		 * @param right
+		 */
+		public void segment(long start, long end, int left, int right);
+
+	}
+
+	private final long[] times;
+	private final int[] lefts;
+	private final int[] rights;
+	private int head = 0;
+	private int count = 0;
+
+	/**
+	 * @param capacity
+	 *            number of writes to remember
+	 */
+	public MotorHistory(int capacity) {
+		times = new long[capacity];
+		lefts = new int[capacity];
+		rights = new int[capacity];
+	}
+
+	/**
+	 * Records a write.
+	 *
+	 * @param time
+	 *            time of the write
+	 * @param left
+	 * @param right
+	 */
+	public synchronized void record(long time, int left, int right) {
+		int i = (head + count) % times.length;
+		if (count == times.length) {
+			head = (head + 1) % times.length;
+		} else {
+			count++;
+		}
+		times[i] = time;
+		lefts[i] = left;
+		rights[i] = right;
+	}
+
+	/**
+	 * Passes the motor values in effect during the given interval, split into
+	 * intervals of constant values, to the consumer. Before the first recorded
+	 * write, the motors are considered stopped.
+	 *
+	 * @param from
+	 * @param to
+	 * @param consumer
+	 */
+	public synchronized void replay(long from, long to, SegmentConsumer consumer) {
+		int left = 0, right = 0;
+		long start = from;
+		for (int k = 0; k < count && start < to; k++) {
+			int i = (head + k) % times.length;
+			if (times[i] > start) {
+				long end = Math.min(times[i], to);
+				consumer.segment(start, end, left, right);
+				start = end;
+			}
+			left = lefts[i];
+			right = rights[i];
+		}
+		if (start < to) {
+			consumer.segment(start, to, left, right);
+		}
+	}
+
+	public synchronized void clear() {
+		head = 0;
+		count = 0;
+	}
+
+}
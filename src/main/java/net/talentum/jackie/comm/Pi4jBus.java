@@ -0,0 +1,52 @@
+package net.talentum.jackie.comm;
+
+import java.io.IOException;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+import com.pi4j.io.i2c.I2CFactory;
+import com.pi4j.io.i2c.I2CFactory.UnsupportedBusNumberException;
+
+/**
+ * {@link Bus} backed by the hardware I2C bus, through pi4j.
+ * 
+ * @author JJurM
+ */
+public class Pi4jBus implements Bus {
+
+	protected I2CBus bus;
+
+	/**
+	 * Opens the bus.
+	 * 
+	 * @param busNumber
+	 *            e.g. {@link I2CBus#BUS_1}
+	 * @throws IOException
+	 * @throws UnsupportedBusNumberException
+	 */
+	public Pi4jBus(int busNumber) throws IOException, UnsupportedBusNumberException {
+		bus = I2CFactory.getInstance(busNumber);
+	}
+
+	@Override
+	public BusDevice getDevice(int address) throws IOException {
+		I2CDevice device = bus.getDevice(address);
+		return new BusDevice() {
+			@Override
+			public void write(byte[] buffer, int offset, int size) throws IOException {
+				device.write(buffer, offset, size);
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int size) throws IOException {
+				return device.read(buffer, offset, size);
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		bus.close();
+	}
+
+}
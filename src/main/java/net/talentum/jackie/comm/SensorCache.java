@@ -0,0 +1,211 @@
+package net.talentum.jackie.comm;
+
+/**
+ * Latest values of the sensors streamed by the board over the serial line.
+ * Every value is stored with the time of its measurement, converted from the
+ * board's clock to {@link System#nanoTime()}, so the readers can decide
+ * whether it's fresh enough.
+ *
+ * <p>
+ * The board sends its {@code micros()} with every packet. The offset between
+ * the clocks is estimated as the minimum of {@code received - sent} over the
+ * last second, which is the packet with the least transmission delay; taking
+ * a new minimum every second follows the drift of the board's oscillator.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class SensorCache {
+
+	/**
+	 * Time of a value that hasn't been received yet
+	 */
+	public static final long NEVER = Long.MIN_VALUE;
+
+	public static final int ULTRASONIC_SENSORS = 8;
+	public static final int INFRARED_LINE_SENSORS = 8;
+	public static final int BUTTON_GROUPS = 2;
+
+	private static final long OFFSET_WINDOW = 1000000000L;
+
+	// guarded by this
+	private final int[] pulses = new int[ULTRASONIC_SENSORS];
+	private final long[] pulseTimes = new long[ULTRASONIC_SENSORS];
+	private final int[] infraredLine = new int[INFRARED_LINE_SENSORS];
+	private long infraredLineTime = NEVER;
+	private final int[] buttons = new int[BUTTON_GROUPS];
+	private final long[] buttonTimes = new long[BUTTON_GROUPS];
+	private int switches;
+	private long switchesTime = NEVER;
+
+	// board clock, guarded by this
+	private long lastBoardTime = -1;
+	private long boardTimeHigh = 0;
+	private long offset;
+	private long windowMin = Long.MAX_VALUE;
+	private long windowStart;
+	private boolean synced = false;
+
+	public SensorCache() {
+		for (int i = 0; i < ULTRASONIC_SENSORS; i++) {
+			pulseTimes[i] = NEVER;
+		}
+		for (int i = 0; i < BUTTON_GROUPS; i++) {
+			buttonTimes[i] = NEVER;
+		}
+	}
+
+	// ===== Updates =====
+
+	/**
+	 * Converts time of the board to the local time.
+	 *
+	 * @param boardMicros
+	 *            value of {@code micros()} on the board, 32 bits
+	 * @param received
+	 *            local time of receiving the packet
+	 * @return local time of the measurement
+	 */
+	private long toLocalTime(long boardMicros, long received) {
+		// extend the 32-bit counter, which overflows every 71 minutes
+		if (lastBoardTime >= 0 && boardMicros < lastBoardTime && lastBoardTime - boardMicros > 0x80000000L) {
+			boardTimeHigh += 0x100000000L;
+		}
+		lastBoardTime = boardMicros;
+		long board = (boardTimeHigh + boardMicros) * 1000;
+
+		long difference = received - board;
+		if (!synced || difference < offset) {
+			// a faster packet, or the first one
+			offset = difference;
+			synced = true;
+		}
+		if (difference < windowMin) {
+			windowMin = difference;
+		}
+		if (received - windowStart > OFFSET_WINDOW) {
+			offset = windowMin;
+			windowMin = Long.MAX_VALUE;
+			windowStart = received;
+		}
+		return board + offset;
+	}
+
+	synchronized void updateUltrasonic(long boardMicros, long received, int index, int pulse) {
+		if (index < 0 || index >= ULTRASONIC_SENSORS)
+			return;
+		pulses[index] = pulse;
+		pulseTimes[index] = toLocalTime(boardMicros, received);
+	}
+
+	synchronized void updateInfraredLine(long boardMicros, long received, byte[] values, int offset) {
+		for (int i = 0; i < INFRARED_LINE_SENSORS; i++) {
+			infraredLine[i] = values[offset + i] & 0xFF;
+		}
+		infraredLineTime = toLocalTime(boardMicros, received);
+	}
+
+	synchronized void updateButtons(long boardMicros, long received, int group, int bits) {
+		if (group < 0 || group >= BUTTON_GROUPS)
+			return;
+		buttons[group] = bits;
+		buttonTimes[group] = toLocalTime(boardMicros, received);
+	}
+
+	synchronized void updateSwitches(long boardMicros, long received, int bits) {
+		switches = bits;
+		switchesTime = toLocalTime(boardMicros, received);
+	}
+
+	// ===== Reading =====
+
+	private static boolean fresh(long time, long maxAge) {
+		return time != NEVER && System.nanoTime() - time <= maxAge;
+	}
+
+	/**
+	 * @param index
+	 *            index of the ultrasonic sensor
+	 * @param maxAge
+	 *            maximum age of the measurement in nanoseconds
+	 * @return distance in centimeters, or {@code NaN} if there is no
+	 *         measurement young enough
+	 */
+	public synchronized double getDistance(int index, long maxAge) {
+		if (!fresh(pulseTimes[index], maxAge))
+			return Double.NaN;
+		return pulses[index] / 58.138;
+	}
+
+	/**
+	 * @param index
+	 * @return time of the last measurement, or {@link #NEVER}
+	 */
+	public synchronized long getUltrasonicTime(int index) {
+		return pulseTimes[index];
+	}
+
+	/**
+	 * Copies the last values of the infrared line sensor.
+	 *
+	 * @param values
+	 *            array for {@link #INFRARED_LINE_SENSORS} values (0-255)
+	 * @return time of the measurement, or {@link #NEVER}
+	 */
+	public synchronized long getInfraredLine(int[] values) {
+		System.arraycopy(infraredLine, 0, values, 0, INFRARED_LINE_SENSORS);
+		return infraredLineTime;
+	}
+
+	/**
+	 * @param group
+	 * @return states of the buttons in the group, bit {@code i} set if the
+	 *         {@code i}-th button is pressed
+	 */
+	public synchronized int getButtons(int group) {
+		return buttons[group];
+	}
+
+	/**
+	 * @param group
+	 * @return time of the last state of the group, or {@link #NEVER}
+	 */
+	public synchronized long getButtonsTime(int group) {
+		return buttonTimes[group];
+	}
+
+	/**
+	 * @return states of the switches, bit {@code i} set if the {@code i}-th
+	 *         switch is on
+	 */
+	public synchronized int getSwitches() {
+		return switches;
+	}
+
+	/**
+	 * @return time of the last state of the switches, or {@link #NEVER}
+	 */
+	public synchronized long getSwitchesTime() {
+		return switchesTime;
+	}
+
+	/**
+	 * @param group
+	 * @param maxAge
+	 *            in nanoseconds
+	 * @return {@code true}, if the state of the button group is young enough
+	 */
+	public synchronized boolean hasButtons(int group, long maxAge) {
+		return fresh(buttonTimes[group], maxAge);
+	}
+
+	/**
+	 * @param maxAge
+	 *            in nanoseconds
+	 * @return {@code true}, if the state of the switches is young enough
+	 */
+	public synchronized boolean hasSwitches(long maxAge) {
+		return fresh(switchesTime, maxAge);
+	}
+
+}
@@ -1,48 +1,99 @@
 package net.talentum.jackie.comm;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
 
 import com.pi4j.io.serial.Serial;
 import com.pi4j.io.serial.SerialDataEvent;
 import com.pi4j.io.serial.SerialDataEventListener;
 import com.pi4j.io.serial.SerialFactory;
 
+import net.talentum.jackie.system.Config;
+
 /**
  * Class responsible for serial communication. Receives and processes input
- * commands and is capable of writing into the output stream.
+ * frames and is capable of writing frames into the output stream.
  * 
  * <p>
- * <b>Command syntax</b><br/>
- * Each command consists of integers separated by spaces. Commands are
- * terminated by end of line, i.e. the {@code "\n"} character. The command is
- * specified by the first integers, the following are arguments.
+ * <b>Frame syntax</b><br/>
+ * Messages are binary frames described in {@link SerialProtocol}: sync byte,
+ * payload length, message type, payload and CRC. Received bytes are parsed by
+ * {@link SerialFrameParser} in the thread delivering them, without
+ * allocation.
  * </p>
  * 
  * <p>
- * <b>List of commands</b><br/>
+ * <b>List of messages</b><br/>
  * </p>
  * <table border="1" cellspacing="0">
  * <tr>
- * <th>Command #</th>
+ * <th>Type</th>
  * <th>Description</th>
- * <th>List of arguments</th>
- * <th>Examples</th>
+ * <th>Payload</th>
  * </tr>
  * <tr>
  * <td><b>1</b></td>
  * <td>Set motor speed</td>
  * <td>
  * <ul>
- * <li>left motor</li>
- * <li>right motor</li>
+ * <li>left motor (1 byte, 0-180)</li>
+ * <li>right motor (1 byte, 0-180)</li>
+ * </ul>
+ * </td>
+ * </tr>
+ * <tr>
+ * <td><b>2</b></td>
+ * <td>Configure streaming of a sensor</td>
+ * <td>
+ * <ul>
+ * <li>type of the sensor packet (1 byte, 16-19)</li>
+ * <li>period in milliseconds (2 bytes), {@code 0} stops the stream</li>
  * </ul>
  * </td>
- * <td>{@code 1 100 80}</td>
+ * </tr>
+ * </table>
+ * 
+ * <p>
+ * <b>Sensor packets</b><br/>
+ * Sent by the board in the configured periods. Every packet starts with the
+ * value of {@code micros()} of the board at the measurement (4 bytes). The
+ * values are stored into {@link #sensors}.
+ * </p>
+ * <table border="1" cellspacing="0">
+ * <tr>
+ * <th>Type</th>
+ * <th>Description</th>
+ * <th>Payload after the timestamp</th>
+ * </tr>
+ * <tr>
+ * <td><b>16</b></td>
+ * <td>Ultrasonic sensor</td>
+ * <td>
+ * <ul>
+ * <li>sensor index (1 byte)</li>
+ * <li>pulse width in microseconds (2 bytes)</li>
+ * </ul>
+ * </td>
+ * </tr>
+ * <tr>
+ * <td><b>17</b></td>
+ * <td>Infrared line sensor</td>
+ * <td>8 values (1 byte each, 0-255)</td>
+ * </tr>
+ * <tr>
+ * <td><b>18</b></td>
+ * <td>Button group</td>
+ * <td>
+ * <ul>
+ * <li>group index (1 byte)</li>
+ * <li>states (1 byte), bit {@code i} set if the {@code i}-th button is
+ * pressed</li>
+ * </ul>
+ * </td>
+ * </tr>
+ * <tr>
+ * <td><b>19</b></td>
+ * <td>Switches</td>
+ * <td>states (1 byte), bit {@code i} set if the {@code i}-th switch is on</td>
  * </tr>
  * </table>
  * 
@@ -50,14 +101,30 @@ import com.pi4j.io.serial.SerialFactory;
  */
 public class SerialCommunicator {
 
-	final Serial serial;
+	public static final int TYPE_MOTORS = 1;
+	public static final int TYPE_STREAM = 2;
+
+	public static final int TYPE_ULTRASONIC = 16;
+	public static final int TYPE_INFRARED_LINE = 17;
+	public static final int TYPE_BUTTONS = 18;
+	public static final int TYPE_SWITCHES = 19;
 
 	/**
-	 * A buffer with stored received strings.
+	 * Latest values of the streamed sensors
 	 */
-	ConcurrentLinkedDeque<String> deque = new ConcurrentLinkedDeque<String>();
+	public final SensorCache sensors = new SensorCache();
+
+	final Serial serial;
 
-	ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final SerialFrameParser parser = new SerialFrameParser(this::process);
+
+	private volatile SerialFrameParser.Handler handler;
+
+	/**
+	 * Buffers for writing, guarded by this
+	 */
+	private final byte[] outPayload = new byte[SerialProtocol.MAX_PAYLOAD];
+	private final byte[] outFrame = new byte[SerialProtocol.MAX_FRAME];
 
 	/**
 	 * Basic constructor. Creates and opens serial port.
@@ -69,17 +136,6 @@ public class SerialCommunicator {
 		serial.addListener(new Listener());
 
 		open();
-
-		// run executor
-		executor.submit(new Runnable() {
-			@Override
-			public void run() {
-				while (true) {
-					String line = readLine();
-					process(line);
-				}
-			}
-		});
 	}
 
 	private void open() {
@@ -92,69 +148,121 @@ public class SerialCommunicator {
 	}
 
 	/**
-	 * Handles received command.
+	 * Sets the receiver of incoming frames. It's called from the thread
+	 * delivering serial data, so it should return quickly.
 	 * 
-	 * @param line
+	 * @param handler
+	 */
+	public void setHandler(SerialFrameParser.Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Handles received frame. Sensor packets are stored into
+	 * {@link #sensors}, other frames are passed to the handler.
+	 * 
+	 * @param type
+	 * @param payload
+	 *            reused buffer, valid only during the call
+	 * @param length
 	 * @see SerialCommunicator
 	 */
-	public void process(String line) {
+	protected void process(int type, byte[] payload, int length) {
+		long received = System.nanoTime();
+		switch (type) {
+		case TYPE_ULTRASONIC:
+			if (length >= 7) {
+				sensors.updateUltrasonic(SerialProtocol.getUnsignedInt(payload, 0), received, payload[4] & 0xFF,
+						SerialProtocol.getUnsignedShort(payload, 5));
+			}
+			return;
+		case TYPE_INFRARED_LINE:
+			if (length >= 4 + SensorCache.INFRARED_LINE_SENSORS) {
+				sensors.updateInfraredLine(SerialProtocol.getUnsignedInt(payload, 0), received, payload, 4);
+			}
+			return;
+		case TYPE_BUTTONS:
+			if (length >= 6) {
+				sensors.updateButtons(SerialProtocol.getUnsignedInt(payload, 0), received, payload[4] & 0xFF,
+						payload[5] & 0xFF);
+			}
+			return;
+		case TYPE_SWITCHES:
+			if (length >= 5) {
+				sensors.updateSwitches(SerialProtocol.getUnsignedInt(payload, 0), received, payload[4] & 0xFF);
+			}
+			return;
+		}
 
+		SerialFrameParser.Handler h = handler;
+		if (h != null) {
+			h.frameReceived(type, payload, length);
+		}
 	}
 
 	/**
-	 * Writes command into serial.
+	 * Writes one frame into serial.
 	 * 
-	 * @param command
+	 * @param type
+	 * @param payload
+	 * @param length
+	 *            length of the payload
 	 * @see SerialCommunicator
 	 */
-	public void write(Integer... command) {
-		String line = Arrays.stream(command).map(n -> String.valueOf(n)).collect(Collectors.joining(" "));
+	public synchronized void write(int type, byte[] payload, int length) {
+		int n = SerialProtocol.encode(type, payload, 0, length, outFrame);
 		try {
-			serial.write(line + ";");
+			serial.write(outFrame, 0, n);
 		} catch (IllegalStateException | IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Waits until a whole line is available and returns the line.
+	 * Writes motor values.
 	 * 
-	 * @return
+	 * @param left
+	 *            0-180
+	 * @param right
+	 *            0-180
 	 */
-	public String readLine() {
-		StringBuffer buffer = new StringBuffer();
-		while (true) {
-
-			String str;
-			while (true) {
-				str = deque.pollFirst();
-				if (str != null) {
-					break;
-				}
-				synchronized (deque) {
-					try {
-						deque.wait();
-					} catch (InterruptedException e) {
-						// do nothing
-					}
-				}
-			}
-			;
-
-			int index = str.indexOf("\n");
-			if (index == -1) {
-				buffer.append(str);
-			} else {
-				buffer.append(str.substring(0, index));
+	public synchronized void writeMotors(int left, int right) {
+		outPayload[0] = (byte) left;
+		outPayload[1] = (byte) right;
+		write(TYPE_MOTORS, outPayload, 2);
+	}
 
-				String remainder = str.substring(index + 1);
-				if (remainder.length() > 0)
-					deque.addFirst(remainder);
+	/**
+	 * Asks the board to stream the sensor in the given period.
+	 * 
+	 * @param sensorType
+	 *            type of the sensor packet, e.g. {@link #TYPE_ULTRASONIC}
+	 * @param period
+	 *            in milliseconds, {@code 0} stops the stream
+	 */
+	public synchronized void stream(int sensorType, int period) {
+		outPayload[0] = (byte) sensorType;
+		SerialProtocol.putShort(outPayload, 1, period);
+		write(TYPE_STREAM, outPayload, 3);
+	}
 
-				return buffer.toString();
-			}
+	/**
+	 * Sets the streaming periods from the configuration
+	 * ({@code params/sensors/periods}).
+	 */
+	public void configureStreams() {
+		String base = "params/sensors/periods/";
+		stream(TYPE_ULTRASONIC, Config.get().getInt(base + "ultrasonic", 0));
+		stream(TYPE_INFRARED_LINE, Config.get().getInt(base + "infraredLine", 0));
+		stream(TYPE_BUTTONS, Config.get().getInt(base + "buttons", 0));
+		stream(TYPE_SWITCHES, Config.get().getInt(base + "switches", 0));
+	}
 
-		}
+	/**
+	 * @return parser of the received data, for statistics
+	 */
+	public SerialFrameParser getParser() {
+		return parser;
 	}
 
 	/**
@@ -166,10 +274,9 @@ public class SerialCommunicator {
 		@Override
 		public void dataReceived(SerialDataEvent event) {
 			try {
-				String str = event.getAsciiString();
-				synchronized (deque) {
-					deque.addLast(str);
-					deque.notify();
+				byte[] data = event.getBytes();
+				synchronized (parser) {
+					parser.feed(data, 0, data.length);
 				}
 			} catch (IOException e) {
 				e.printStackTrace();
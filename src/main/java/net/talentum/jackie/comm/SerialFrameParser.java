@@ -0,0 +1,146 @@
+package net.talentum.jackie.comm;
+
+/**
+ * Extracts frames of the {@link SerialProtocol} from a stream of received
+ * bytes. Bytes are stored in a preallocated ring buffer and every complete
+ * frame is passed to the handler in a reused payload buffer, so parsing
+ * doesn't allocate. Bytes that don't start a valid frame are skipped.
+ *
+ * <p>
+ * The parser is not thread-safe, it's meant to be fed from the thread
+ * receiving the data.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class SerialFrameParser {
+
+	/**
+	 * Receiver of parsed frames.
+	 */
+	public interface Handler {
+
+		/**
+		 * Called for every received frame. The payload buffer is reused, it's
+		 * valid only during the call.
+		 *
+		 * @param type
+		 * @param payload
+		 * @param length
+		 *            length of the payload
+		 */
+		public void frameReceived(int type, byte[] payload, int length);
+
+	}
+
+	private static final int CAPACITY = 256;
+	private static final int MASK = CAPACITY - 1;
+
+	private final byte[] ring = new byte[CAPACITY];
+	private int head = 0;
+	private int count = 0;
+
+	private final byte[] payload = new byte[SerialProtocol.MAX_PAYLOAD];
+	private final Handler handler;
+
+	// statistics
+	private long frames = 0;
+	private long crcErrors = 0;
+	private long skipped = 0;
+
+	public SerialFrameParser(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Adds received bytes and handles all frames completed by them.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public void feed(byte[] data, int offset, int length) {
+		while (length > 0) {
+			// the ring always has room, parse() leaves less than a frame
+			int n = Math.min(length, CAPACITY - count);
+			int tail = (head + count) & MASK;
+			int first = Math.min(n, CAPACITY - tail);
+			System.arraycopy(data, offset, ring, tail, first);
+			System.arraycopy(data, offset + first, ring, 0, n - first);
+			count += n;
+			offset += n;
+			length -= n;
+			parse();
+		}
+	}
+
+	private void parse() {
+		while (true) {
+			// find start of a frame
+			while (count > 0 && (ring[head] & 0xFF) != SerialProtocol.SYNC) {
+				head = (head + 1) & MASK;
+				count--;
+				skipped++;
+			}
+			if (count < 3)
+				return;
+
+			int length = ring[(head + 1) & MASK] & 0xFF;
+			if (length > SerialProtocol.MAX_PAYLOAD) {
+				drop();
+				continue;
+			}
+			if (count < length + SerialProtocol.OVERHEAD)
+				return;
+
+			int type = ring[(head + 2) & MASK] & 0xFF;
+			int crc = SerialProtocol.crc8(SerialProtocol.crc8(0, length), type);
+			for (int i = 0; i < length; i++) {
+				byte b = ring[(head + 3 + i) & MASK];
+				payload[i] = b;
+				crc = SerialProtocol.crc8(crc, b);
+			}
+			if (crc != (ring[(head + 3 + length) & MASK] & 0xFF)) {
+				crcErrors++;
+				drop();
+				continue;
+			}
+
+			head = (head + length + SerialProtocol.OVERHEAD) & MASK;
+			count -= length + SerialProtocol.OVERHEAD;
+			frames++;
+			handler.frameReceived(type, payload, length);
+		}
+	}
+
+	/**
+	 * Skips the sync byte of a false start.
+	 */
+	private void drop() {
+		head = (head + 1) & MASK;
+		count--;
+		skipped++;
+	}
+
+	/**
+	 * @return number of received frames
+	 */
+	public long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * @return number of frames rejected because of the CRC
+	 */
+	public long getCrcErrorCount() {
+		return crcErrors;
+	}
+
+	/**
+	 * @return number of bytes skipped while searching for frames
+	 */
+	public long getSkippedCount() {
+		return skipped;
+	}
+
+}
@@ -0,0 +1,139 @@
+package net.talentum.jackie.comm;
+
+/**
+ * Binary framing used on the serial line.
+ *
+ * <p>
+ * <b>Frame</b><br/>
+ * {@code SYNC LENGTH TYPE PAYLOAD... CRC}, where {@code SYNC} is
+ * {@link #SYNC}, {@code LENGTH} is the number of payload bytes (at most
+ * {@link #MAX_PAYLOAD}), {@code TYPE} identifies the message and {@code CRC}
+ * is CRC-8 (polynomial {@code 0x07}, initial value {@code 0}) of the
+ * {@code LENGTH}, {@code TYPE} and payload bytes. Multi-byte values in the
+ * payload are big-endian.
+ * </p>
+ *
+ * <p>
+ * The sync byte can also occur inside a frame; a receiver that loses
+ * synchronization skips to the next sync byte and relies on the length limit
+ * and the CRC to reject false starts.
+ * </p>
+ *
+ * @author JJurM
+ * @see SerialFrameParser
+ */
+public final class SerialProtocol {
+
+	private SerialProtocol() {
+	}
+
+	public static final int SYNC = 0xA5;
+	public static final int MAX_PAYLOAD = 32;
+
+	/**
+	 * Number of bytes of a frame besides the payload
+	 */
+	public static final int OVERHEAD = 4;
+
+	public static final int MAX_FRAME = MAX_PAYLOAD + OVERHEAD;
+
+	private static final byte[] CRC_TABLE = new byte[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int b = 0; b < 8; b++) {
+				crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+			}
+			CRC_TABLE[i] = (byte) crc;
+		}
+	}
+
+	/**
+	 * Updates CRC-8 with one byte.
+	 *
+	 * @param crc
+	 * @param b
+	 * @return new value of the CRC
+	 */
+	public static int crc8(int crc, int b) {
+		return CRC_TABLE[(crc ^ b) & 0xFF] & 0xFF;
+	}
+
+	/**
+	 * Encodes one frame.
+	 *
+	 * @param type
+	 *            type of the message, {@code 0..255}
+	 * @param payload
+	 * @param offset
+	 *            offset of the payload
+	 * @param length
+	 *            length of the payload, at most {@link #MAX_PAYLOAD}
+	 * @param out
+	 *            buffer for the frame, at least {@code length + OVERHEAD}
+	 *            bytes
+	 * @return length of the frame
+	 */
+	public static int encode(int type, byte[] payload, int offset, int length, byte[] out) {
+		if (length > MAX_PAYLOAD)
+			throw new IllegalArgumentException("Payload too long: " + length);
+		out[0] = (byte) SYNC;
+		out[1] = (byte) length;
+		out[2] = (byte) type;
+		int crc = crc8(crc8(0, length), type);
+		for (int i = 0; i < length; i++) {
+			byte b = payload[offset + i];
+			out[3 + i] = b;
+			crc = crc8(crc, b);
+		}
+		out[3 + length] = (byte) crc;
+		return length + OVERHEAD;
+	}
+
+	/**
+	 * Writes 16-bit value, big-endian.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param value
+	 */
+	public static void putShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >> 8);
+		buffer[offset + 1] = (byte) value;
+	}
+
+	/**
+	 * Reads signed 16-bit value, big-endian.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @return
+	 */
+	public static int getShort(byte[] buffer, int offset) {
+		return (short) (((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF));
+	}
+
+	/**
+	 * Reads unsigned 16-bit value, big-endian.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @return
+	 */
+	public static int getUnsignedShort(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xFF) << 8) | (buffer[offset + 1] & 0xFF);
+	}
+
+	/**
+	 * Reads unsigned 32-bit value, big-endian.
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @return
+	 */
+	public static long getUnsignedInt(byte[] buffer, int offset) {
+		return ((long) getUnsignedShort(buffer, offset) << 16) | getUnsignedShort(buffer, offset + 2);
+	}
+
+}
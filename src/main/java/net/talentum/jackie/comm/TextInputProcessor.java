@@ -53,17 +53,37 @@ public class TextInputProcessor {
 		commands.put("i", c);
 		commands.put("us", (args, br, pw) -> readUltrasonic(args, pw));
 		commands.put("test", (args, br, pw) -> pw.println(commander.testI2CAll()));
-		commands.put("accel", (args, br, pw) -> pw.println(String.join(", ", Arrays.stream(commander.getAcceleration())
-				.mapToObj(i -> String.valueOf(i)).toArray(s -> new String[s]))));
-		commands.put("gyro", (args, br, pw) -> pw.println(String.join(", ",
-				Arrays.stream(commander.getGyro()).mapToObj(i -> String.valueOf(i)).toArray(s -> new String[s]))));
+		commands.put("accel", (args, br, pw) -> printValues(commander.getAcceleration(), pw));
+		commands.put("bus", (args, br, pw) -> {
+			if (args.length >= 1 && "reset".equals(args[0])) {
+				commander.i2c.scheduler.resetStatistics();
+			}
+			pw.print(commander.i2c.scheduler.getStatistics());
+		});
+		commands.put("gyro", (args, br, pw) -> printValues(commander.getGyro(), pw));
 
 		// robot commands
 		commands.put("refresh", (args, br, pw) -> Main.robot.refresh());
 		commands.put("begin", (args, br, pw) -> Main.robot.begin());
 
-		commands.put("stop", (args, br, pw) -> commander.writePropulsionMotors(0));
+		commands.put("stop", (args, br, pw) -> {
+			// the inner heading loop would overwrite the motors
+			if (Main.robot != null && Main.robot.lineFollowingState != null
+					&& Main.robot.lineFollowingState.getGyroLoop() != null) {
+				Main.robot.lineFollowingState.getGyroLoop().stop();
+			}
+			commander.writePropulsionMotors(0);
+		});
+
+	}
 
+	private void printValues(int[] values, PrintWriter pw) {
+		if (values == null) {
+			pw.println("Transfer failed");
+			return;
+		}
+		pw.println(String.join(", ",
+				Arrays.stream(values).mapToObj(i -> String.valueOf(i)).toArray(s -> new String[s])));
 	}
 
 	public void i2cArbitraryTransfer(String[] args, PrintWriter pw) {
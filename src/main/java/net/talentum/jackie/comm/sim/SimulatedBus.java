@@ -0,0 +1,343 @@
+package net.talentum.jackie.comm.sim;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import net.talentum.jackie.comm.Bus;
+import net.talentum.jackie.comm.BusDevice;
+import net.talentum.jackie.comm.I2CCommunicator;
+import net.talentum.jackie.comm.MPU6050;
+
+/**
+ * {@link Bus} simulating the robot's I2C slaves in the process, so that the
+ * communication and the control path can run without hardware.
+ *
+ * <p>
+ * The three Arduino boards ({@code 0x04, 0x05, 0x06}) implement the command
+ * table documented in {@link I2CCommunicator} and share one state: motors,
+ * lights, LEDs, buttons, switches and distance and infrared sensors. A read
+ * returns the response to the last written command. The MPU-6050 ({@code 0x68})
+ * is a register file; writing a register address selects it, further bytes
+ * are written into the registers and reads continue from it.
+ * </p>
+ *
+ * <p>
+ * Every operation can be delayed by a fixed latency, fail randomly with the
+ * given probability, or block completely while the bus is wedged.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class SimulatedBus implements Bus {
+
+	public static final int ADDRESS_A = 0x04;
+	public static final int ADDRESS_B = 0x05;
+	public static final int ADDRESS_C = 0x06;
+	public static final int ADDRESS_MPU6050 = 0x68;
+
+	// ===== State =====
+
+	private volatile boolean started = false;
+	private final int[] motors = new int[8];
+	private final boolean[] lights = new boolean[2];
+	private final int[] lightsAnalog = new int[2];
+	private final boolean[] leds = new boolean[8];
+	private final int[] ledBlinks = new int[8];
+	private final boolean[][] buttons = new boolean[2][8];
+	private final boolean[] switches = new boolean[8];
+	private final double[] distances = new double[8];
+	private final int[] infrared = new int[8];
+	private final byte[] mpuRegisters = new byte[128];
+
+	// ===== Faults =====
+
+	private volatile long latency = 0;
+	private volatile double errorRate = 0;
+	private volatile boolean wedged = false;
+	private final Random random = new Random(0);
+
+	private long operations = 0;
+	private long injectedErrors = 0;
+
+	public SimulatedBus() {
+		for (int i = 0; i < motors.length; i++) {
+			motors[i] = 90;
+		}
+		for (int i = 0; i < distances.length; i++) {
+			distances[i] = 200;
+		}
+	}
+
+	@Override
+	public BusDevice getDevice(int address) throws IOException {
+		switch (address) {
+		case ADDRESS_A:
+		case ADDRESS_B:
+		case ADDRESS_C:
+			return new Board();
+		case ADDRESS_MPU6050:
+			return new Mpu();
+		default:
+			throw new IOException(String.format("No device at address 0x%02x", address));
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Applies latency and injected faults to one operation.
+	 */
+	private void operation() throws IOException {
+		while (wedged) {
+			LockSupport.parkNanos(100000);
+		}
+		long l = latency;
+		if (l > 0) {
+			LockSupport.parkNanos(l);
+		}
+		synchronized (this) {
+			operations++;
+			if (errorRate > 0 && random.nextDouble() < errorRate) {
+				injectedErrors++;
+				throw new IOException("Injected error");
+			}
+		}
+	}
+
+	/**
+	 * One Arduino board.
+	 */
+	private class Board implements BusDevice {
+
+		private final byte[] response = new byte[16];
+		private int responseLength = 0;
+
+		@Override
+		public void write(byte[] buffer, int offset, int size) throws IOException {
+			operation();
+			if (size < 1)
+				return;
+			synchronized (SimulatedBus.this) {
+				responseLength = process(buffer, offset, size, response);
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int size) throws IOException {
+			operation();
+			// the board sends what it has prepared, the rest is zero
+			for (int i = 0; i < size; i++) {
+				buffer[offset + i] = i < responseLength ? response[i] : 0;
+			}
+			return size;
+		}
+
+	}
+
+	/**
+	 * Processes one command.
+	 *
+	 * @return length of the response written into {@code response}
+	 */
+	private int process(byte[] buffer, int offset, int size, byte[] response) {
+		int command = (buffer[offset] & 0xFF) >> 3;
+		int sub = buffer[offset] & 0x07;
+		int arg0 = size > 1 ? buffer[offset + 1] & 0xFF : 0;
+		int arg1 = size > 2 ? buffer[offset + 2] & 0xFF : 0;
+
+		switch (command) {
+		case 1: // test
+			response[0] = (byte) arg0;
+			return 1;
+		case 2: // start / stop
+			started = sub == 1;
+			return 0;
+		case 8: // LED
+			leds[sub] = arg0 != 0;
+			return 0;
+		case 9: // blink LED
+			ledBlinks[sub]++;
+			return 0;
+		case 10: // motor
+			motors[sub] = arg0;
+			return 0;
+		case 11: // multiple motors
+			if (sub == 0) {
+				motors[0] = arg0;
+				motors[1] = arg1;
+			}
+			return 0;
+		case 12: // light
+			lights[sub & 1] = arg0 != 0;
+			return 0;
+		case 13: // light analog
+			lightsAnalog[sub & 1] = arg0;
+			return 0;
+		case 16: // button, group A
+		case 17: // button, group B
+			response[0] = (byte) (buttons[command - 16][sub] ? 1 : 0);
+			return 1;
+		case 18: // button group, one byte per button, 0 = pressed
+			for (int i = 0; i < 8; i++) {
+				response[i] = (byte) (buttons[sub & 1][i] ? 0 : 1);
+			}
+			return 8;
+		case 19: // switch
+			response[0] = (byte) (switches[sub] ? 1 : 0);
+			return 1;
+		case 20: { // ultrasonic, pulse width in microseconds
+			int pulse = (int) Math.min(distances[sub] * 58.138, 38000);
+			response[0] = (byte) (pulse >> 8);
+			response[1] = (byte) pulse;
+			return 2;
+		}
+		case 21: // infrared
+			response[0] = (byte) (infrared[sub] >> 8);
+			response[1] = (byte) infrared[sub];
+			return 2;
+		case 22: // infrared line sensor
+			for (int i = 0; i < 8; i++) {
+				response[i] = (byte) Math.min(infrared[i], 255);
+			}
+			return 8;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * The MPU-6050.
+	 */
+	private class Mpu implements BusDevice {
+
+		private int register = 0;
+
+		@Override
+		public void write(byte[] buffer, int offset, int size) throws IOException {
+			operation();
+			if (size < 1)
+				return;
+			synchronized (SimulatedBus.this) {
+				register = buffer[offset] & 0x7F;
+				for (int i = 1; i < size; i++) {
+					mpuRegisters[(register + i - 1) & 0x7F] = buffer[offset + i];
+				}
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int size) throws IOException {
+			operation();
+			synchronized (SimulatedBus.this) {
+				for (int i = 0; i < size; i++) {
+					buffer[offset + i] = mpuRegisters[(register + i) & 0x7F];
+				}
+			}
+			return size;
+		}
+
+	}
+
+	// ===== Faults =====
+
+	/**
+	 * @param latency
+	 *            delay of every read and write in nanoseconds
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * @param errorRate
+	 *            probability that a read or write fails with
+	 *            {@link IOException}
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * While wedged, every read and write blocks.
+	 *
+	 * @param wedged
+	 */
+	public void setWedged(boolean wedged) {
+		this.wedged = wedged;
+	}
+
+	public synchronized long getOperationCount() {
+		return operations;
+	}
+
+	public synchronized long getInjectedErrorCount() {
+		return injectedErrors;
+	}
+
+	// ===== State access =====
+
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * @param index
+	 * @return last written value of the motor (0-180)
+	 */
+	public synchronized int getMotor(int index) {
+		return motors[index];
+	}
+
+	public synchronized boolean getLight(int index) {
+		return lights[index];
+	}
+
+	public synchronized int getLightAnalog(int index) {
+		return lightsAnalog[index];
+	}
+
+	public synchronized boolean getLED(int index) {
+		return leds[index];
+	}
+
+	public synchronized int getLEDBlinkCount(int index) {
+		return ledBlinks[index];
+	}
+
+	public synchronized void setButton(int group, int index, boolean pressed) {
+		buttons[group][index] = pressed;
+	}
+
+	public synchronized void setSwitch(int index, boolean value) {
+		switches[index] = value;
+	}
+
+	/**
+	 * @param index
+	 * @param distance
+	 *            distance in centimeters
+	 */
+	public synchronized void setDistance(int index, double distance) {
+		distances[index] = distance;
+	}
+
+	public synchronized void setInfrared(int index, int value) {
+		infrared[index] = value;
+	}
+
+	/**
+	 * Sets a 16-bit register pair of the MPU-6050, such as
+	 * {@link MPU6050#REGISTER_GYRO_Z}.
+	 *
+	 * @param register
+	 * @param value
+	 */
+	public synchronized void setMpuValue(int register, int value) {
+		mpuRegisters[register] = (byte) (value >> 8);
+		mpuRegisters[register + 1] = (byte) value;
+	}
+
+}
@@ -0,0 +1,200 @@
+package net.talentum.jackie.image;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Captures a burst of light-off/light-on image pairs and lets
+ * {@link SubtractingImageBallFinder} accumulate their differences.
+ *
+ * <p>
+ * Instead of sleeping a fixed time after every light toggle, frames are
+ * grabbed continuously and the time each one was captured is checked. The
+ * first frame captured at least {@code settleDelay} after the toggle is taken
+ * as the frame for the new light state; a frame returned late but captured
+ * before that could still show the old light. The difference of a pair is
+ * processed in a separate thread while the next pair is being captured.
+ * Suppliers reuse their images, so the luminance of each frame is copied into
+ * grayscale images owned by the finder before the next frame is requested;
+ * two sets of copies alternate between the pair being captured and the pair
+ * being processed.
+ * </p>
+ *
+ * <p>
+ * The processing thread is started by {@link #find(int, long)} and must be
+ * stopped with {@link #close()} by the owner.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class BurstCaptureBallFinder {
+
+	private final SubtractingImageBallFinder finder;
+	private final Supplier<BufferedImage> frameSupplier;
+	private final LongSupplier frameTime;
+	private final Consumer<Boolean> light;
+
+	// guarded by this
+	private ExecutorService processor;
+
+	// used by the thread calling find()
+	private final BufferedImage[][] copies = new BufferedImage[2][2];
+	private int[] scratch = new int[0];
+
+	/**
+	 * @param finder
+	 *            finder doing the processing
+	 * @param frameSupplier
+	 *            supplier of camera frames, blocking until a frame is
+	 *            available
+	 * @param frameTime
+	 *            time of capture of the frame last returned by the
+	 *            {@code frameSupplier}, in the scale of
+	 *            {@link System#nanoTime()} (see
+	 *            {@link net.talentum.jackie.image.supplier.ImageSupplier#getTimestamp()})
+	 * @param light
+	 *            switches the light on ({@code true}) or off
+	 */
+	public BurstCaptureBallFinder(SubtractingImageBallFinder finder, Supplier<BufferedImage> frameSupplier,
+			LongSupplier frameTime, Consumer<Boolean> light) {
+		this.finder = finder;
+		this.frameSupplier = frameSupplier;
+		this.frameTime = frameTime;
+		this.light = light;
+	}
+
+	public SubtractingImageBallFinder getFinder() {
+		return finder;
+	}
+
+	/**
+	 * Grabs frames until one captured at or after the given time is obtained.
+	 *
+	 * @param notBefore
+	 *            time in the scale of {@link System#nanoTime()}
+	 * @return the frame, or {@code null} if the supplier returned no image
+	 */
+	private BufferedImage captureAfter(long notBefore) {
+		BufferedImage image;
+		do {
+			image = frameSupplier.get();
+			if (image == null)
+				return null;
+		} while (frameTime.getAsLong() - notBefore < 0);
+		return image;
+	}
+
+	/**
+	 * Captures the given number of pairs and finds the ball in the accumulated
+	 * difference. The light is left off.
+	 *
+	 * @param pairs
+	 *            number of light-off/light-on pairs
+	 * @param settleDelay
+	 *            time in milliseconds after a light toggle, before which the
+	 *            frames are not used
+	 * @return point of ball, or {@code null} if it was not found or the
+	 *         capture failed
+	 */
+	public Point find(int pairs, long settleDelay) {
+		long settle = TimeUnit.MILLISECONDS.toNanos(settleDelay);
+		Future<Point> last = null, beforeLast = null;
+		ExecutorService processor = processor();
+
+		finder.resetAccumulation();
+		try {
+			for (int i = 0; i < pairs; i++) {
+				// the copies are free once the pair before the previous one
+				// is processed
+				BufferedImage[] pair = copies[i & 1];
+				if (beforeLast != null) {
+					await(beforeLast);
+				}
+
+				light.accept(false);
+				BufferedImage img1 = captureAfter(System.nanoTime() + settle);
+				if (img1 == null)
+					break;
+				BufferedImage copy1 = pair[0] = copy(img1, pair[0]);
+
+				light.accept(true);
+				BufferedImage img2 = captureAfter(System.nanoTime() + settle);
+				if (img2 == null)
+					break;
+				BufferedImage copy2 = pair[1] = copy(img2, pair[1]);
+
+				// process while the next pair is being captured
+				beforeLast = last;
+				last = processor.submit(() -> finder.findAccumulated(copy1, copy2));
+			}
+		} finally {
+			light.accept(false);
+		}
+
+		return last == null ? null : await(last);
+	}
+
+	private static Point await(Future<Point> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Copies luminance of the frame into a grayscale image.
+	 *
+	 * @param src
+	 * @param dst
+	 *            image to reuse, may be {@code null}
+	 * @return {@code dst}, or a new image if it didn't match the size
+	 */
+	private BufferedImage copy(BufferedImage src, BufferedImage dst) {
+		int w = src.getWidth(), h = src.getHeight();
+		if (dst == null || dst.getWidth() != w || dst.getHeight() != h) {
+			dst = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+		}
+		if (scratch.length < w) {
+			scratch = new int[w];
+		}
+		byte[] luma = ((DataBufferByte) dst.getRaster().getDataBuffer()).getData();
+		for (int y = 0; y < h; y++) {
+			Luminance.convertRow(src, y, luma, y * w, scratch);
+		}
+		return dst;
+	}
+
+	private synchronized ExecutorService processor() {
+		if (processor == null) {
+			processor = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "BallFinderProcessor");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return processor;
+	}
+
+	/**
+	 * Stops the processing thread. A later {@link #find(int, long)} starts a
+	 * new one.
+	 */
+	public synchronized void close() {
+		if (processor != null) {
+			processor.shutdown();
+			processor = null;
+		}
+	}
+
+}
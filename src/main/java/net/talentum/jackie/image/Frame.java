@@ -0,0 +1,213 @@
+package net.talentum.jackie.image;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Image as seen by the vision pipeline. The primary plane is luminance, one
+ * byte per pixel in row-major order, which is all the line-following stages
+ * need. Color is available only if the frame was created from a color image,
+ * and the packed RGB plane is derived from it on the first request, so the
+ * stages that don't need color never touch it.
+ *
+ * <p>
+ * Frames can be recycled with {@link #set(BufferedImage)} or
+ * {@link #prepare(int, int)}, which keep the allocated buffers.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class Frame {
+
+	private static final ComponentColorModel GRAY_COLOR_MODEL = new ComponentColorModel(
+			ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+	private int width;
+	private int height;
+	private byte[] luminance = new byte[0];
+
+	/**
+	 * Color image the frame was created from, or {@code null}
+	 */
+	private BufferedImage source;
+
+	private int[] color = new int[0];
+	private boolean colorValid = false;
+	private int[] scratch = new int[0];
+
+	/**
+	 * Gray image sharing the luminance plane, created on request
+	 */
+	private BufferedImage grayImage;
+
+	public Frame() {
+	}
+
+	/**
+	 * Creates frame from the given image.
+	 *
+	 * @param image
+	 */
+	public Frame(BufferedImage image) {
+		set(image);
+	}
+
+	/**
+	 * Sets this frame to the given image. Luminance is converted immediately,
+	 * color is kept in the image until requested. A {@code TYPE_BYTE_GRAY}
+	 * image gives a frame without color.
+	 *
+	 * @param image
+	 * @return this object
+	 */
+	public Frame set(BufferedImage image) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		byte[] plane = prepare(w, h);
+		if (scratch.length < w) {
+			scratch = new int[w];
+		}
+		for (int y = 0; y < h; y++) {
+			Luminance.convertRow(image, y, plane, y * w, scratch);
+		}
+		source = image.getType() == BufferedImage.TYPE_BYTE_GRAY ? null : image;
+		if (source == null) {
+			grayImage = image;
+		}
+		return this;
+	}
+
+	/**
+	 * Sets this frame to a luminance-only frame of the given size. The
+	 * returned plane is to be filled by the caller.
+	 *
+	 * @param width
+	 * @param height
+	 * @return luminance plane, {@code width * height} bytes
+	 */
+	public byte[] prepare(int width, int height) {
+		if (luminance.length != width * height) {
+			luminance = new byte[width * height];
+		}
+		this.width = width;
+		this.height = height;
+		source = null;
+		colorValid = false;
+		grayImage = null;
+		return luminance;
+	}
+
+	/**
+	 * Sets color of this frame to a region of the given image, for a frame
+	 * whose luminance was computed from that region, e.g. by a filter that
+	 * crops the image. Must be called after the size is set.
+	 *
+	 * @param image
+	 *            color image, a {@code TYPE_BYTE_GRAY} image gives no color
+	 * @param x
+	 *            left edge of the region in the image
+	 * @param y
+	 *            top edge of the region in the image
+	 * @return this object
+	 */
+	public Frame setColorSource(BufferedImage image, int x, int y) {
+		source = image.getType() == BufferedImage.TYPE_BYTE_GRAY ? null : image.getSubimage(x, y, width, height);
+		colorValid = false;
+		grayImage = null;
+		return this;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return luminance plane, row-major
+	 */
+	public byte[] getLuminance() {
+		return luminance;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return luminance {@code 0..255}
+	 */
+	public int getLuminance(int x, int y) {
+		return luminance[y * width + x] & 0xFF;
+	}
+
+	/**
+	 * @return {@code true}, if the frame was created from a color image
+	 */
+	public boolean hasColor() {
+		return source != null;
+	}
+
+	/**
+	 * Returns packed RGB plane, row-major. It's derived from the source image
+	 * on the first call.
+	 *
+	 * @return the plane, or {@code null} if the frame has no color
+	 */
+	public int[] getColor() {
+		if (source == null)
+			return null;
+		if (!colorValid) {
+			if (color.length != width * height) {
+				color = new int[width * height];
+			}
+			source.getRGB(0, 0, width, height, color, 0, width);
+			colorValid = true;
+		}
+		return color;
+	}
+
+	/**
+	 * Reads one row of packed RGB values. Uses the color plane if it was
+	 * already derived, otherwise reads only the row from the source image.
+	 *
+	 * @param y
+	 * @param dst
+	 *            array of at least {@link #getWidth()}
+	 * @return {@code false} if the frame has no color
+	 */
+	public boolean getColorRow(int y, int[] dst) {
+		if (source == null)
+			return false;
+		if (colorValid) {
+			System.arraycopy(color, y * width, dst, 0, width);
+		} else {
+			source.getRGB(0, y, width, 1, dst, 0, width);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns this frame as an image: the source image, or a gray image
+	 * sharing the luminance plane.
+	 *
+	 * @return
+	 */
+	public BufferedImage getImage() {
+		if (source != null)
+			return source;
+		if (grayImage == null) {
+			WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(luminance, width * height),
+					width, height, width, 1, new int[] { 0 }, null);
+			grayImage = new BufferedImage(GRAY_COLOR_MODEL, raster, false, null);
+		}
+		return grayImage;
+	}
+
+}
@@ -0,0 +1,155 @@
+package net.talentum.jackie.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Luminance conversion shared by all vision stages. Uses the weights
+ * {@code 0.299, 0.587, 0.114} in 16-bit fixed point, so only integer
+ * multiplications and a shift are evaluated per pixel.
+ *
+ * <p>
+ * The loops are kept free of branches and calls, with unit stride where the
+ * layout allows it, so that the JIT can unroll and vectorise them. Rows of
+ * {@code TYPE_3BYTE_BGR} images (from {@code OpenCVImageSupplier}) and of
+ * {@code TYPE_INT_RGB} images (from the webcam supplier and the blur module)
+ * are read directly from the raster, rows of {@code TYPE_BYTE_GRAY} images
+ * (luma from {@code V4L2ImageSupplier}) are copied; other types go through
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class Luminance {
+
+	public static final int WEIGHT_R = 19595;
+	public static final int WEIGHT_G = 38470;
+	public static final int WEIGHT_B = 7471;
+	public static final int SHIFT = 16;
+
+	/**
+	 * @param r
+	 * @param g
+	 * @param b
+	 * @return luminance {@code 0..255}
+	 */
+	public static int of(int r, int g, int b) {
+		return (WEIGHT_R * r + WEIGHT_G * g + WEIGHT_B * b) >> SHIFT;
+	}
+
+	/**
+	 * @param rgb
+	 *            packed RGB value
+	 * @return luminance {@code 0..255}
+	 */
+	public static int of(int rgb) {
+		return (WEIGHT_R * ((rgb >> 16) & 0xFF) + WEIGHT_G * ((rgb >> 8) & 0xFF) + WEIGHT_B * (rgb & 0xFF)) >> SHIFT;
+	}
+
+	/**
+	 * Converts packed RGB values.
+	 *
+	 * @param src
+	 * @param srcOffset
+	 * @param dst
+	 * @param dstOffset
+	 * @param length
+	 *            number of pixels
+	 */
+	public static void convertPacked(int[] src, int srcOffset, byte[] dst, int dstOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			int rgb = src[srcOffset + i];
+			dst[dstOffset + i] = (byte) ((WEIGHT_R * ((rgb >> 16) & 0xFF) + WEIGHT_G * ((rgb >> 8) & 0xFF)
+					+ WEIGHT_B * (rgb & 0xFF)) >> SHIFT);
+		}
+	}
+
+	/**
+	 * Converts interleaved {@code B, G, R} bytes.
+	 *
+	 * @param src
+	 * @param srcOffset
+	 *            index of the blue byte of the first pixel
+	 * @param dst
+	 * @param dstOffset
+	 * @param length
+	 *            number of pixels
+	 */
+	public static void convertBGR(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length) {
+		for (int i = 0; i < length; i++) {
+			int s = srcOffset + 3 * i;
+			dst[dstOffset + i] = (byte) ((WEIGHT_B * (src[s] & 0xFF) + WEIGHT_G * (src[s + 1] & 0xFF)
+					+ WEIGHT_R * (src[s + 2] & 0xFF)) >> SHIFT);
+		}
+	}
+
+	/**
+	 * Converts one row of the image.
+	 *
+	 * @param img
+	 * @param y
+	 *            the row
+	 * @param dst
+	 * @param dstOffset
+	 * @param scratch
+	 *            buffer of at least image width, used for image types that
+	 *            are not read directly
+	 */
+	public static void convertRow(BufferedImage img, int y, byte[] dst, int dstOffset, int[] scratch) {
+		int width = img.getWidth();
+		Raster raster = img.getRaster();
+		SampleModel sm = raster.getSampleModel();
+		int tx = raster.getSampleModelTranslateX();
+		int ty = raster.getSampleModelTranslateY();
+
+		switch (img.getType()) {
+		case BufferedImage.TYPE_INT_RGB:
+		case BufferedImage.TYPE_INT_ARGB:
+			if (sm instanceof SinglePixelPackedSampleModel) {
+				DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+				int offset = buffer.getOffset() + ((SinglePixelPackedSampleModel) sm).getOffset(-tx, y - ty);
+				convertPacked(buffer.getData(), offset, dst, dstOffset, width);
+				return;
+			}
+			break;
+		case BufferedImage.TYPE_3BYTE_BGR:
+			if (sm instanceof ComponentSampleModel && isBGR((ComponentSampleModel) sm)) {
+				ComponentSampleModel csm = (ComponentSampleModel) sm;
+				DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+				int offset = buffer.getOffset() + (y - ty) * csm.getScanlineStride() - tx * 3;
+				convertBGR(buffer.getData(), offset, dst, dstOffset, width);
+				return;
+			}
+			break;
+		case BufferedImage.TYPE_BYTE_GRAY:
+			// already luminance; getRGB would apply gamma correction
+			if (sm instanceof ComponentSampleModel && ((ComponentSampleModel) sm).getPixelStride() == 1) {
+				ComponentSampleModel csm = (ComponentSampleModel) sm;
+				DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+				int offset = buffer.getOffset() + (y - ty) * csm.getScanlineStride() - tx;
+				System.arraycopy(buffer.getData(), offset, dst, dstOffset, width);
+				return;
+			}
+			break;
+		}
+
+		img.getRGB(0, y, width, 1, scratch, 0, width);
+		convertPacked(scratch, 0, dst, dstOffset, width);
+	}
+
+	/**
+	 * Checks that pixels are stored as three consecutive bytes {@code B, G, R}
+	 * (bands are {@code R, G, B}).
+	 */
+	private static boolean isBGR(ComponentSampleModel sm) {
+		int[] bandOffsets = sm.getBandOffsets();
+		return sm.getPixelStride() == 3 && bandOffsets.length == 3 && bandOffsets[0] == 2 && bandOffsets[1] == 1
+				&& bandOffsets[2] == 0;
+	}
+
+}
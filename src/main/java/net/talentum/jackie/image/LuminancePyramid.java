@@ -0,0 +1,179 @@
+package net.talentum.jackie.image;
+
+/**
+ * Luminance of an image at full, half and quarter resolution. Level
+ * {@code 0} is filled by the thresholding pass, the smaller levels are then
+ * computed by averaging 2x2 blocks of the previous level. Buffers are kept and
+ * reused for subsequent images of the same size.
+ *
+ * <p>
+ * Together with the threshold used for the boolean image, the pyramid lets
+ * strategies locate the trail on a small level and refine the position on the
+ * finer levels only around the coarse result, see
+ * {@link #findNearestTrailX(int, int, int)}.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class LuminancePyramid {
+
+	public static final int LEVELS = 3;
+
+	/**
+	 * Half-width of the window searched on a finer level around the position
+	 * found on the coarser one
+	 */
+	private static final int REFINE_RADIUS = 2;
+
+	private final byte[][] planes = new byte[LEVELS][0];
+	private final int[] widths = new int[LEVELS];
+	private final int[] heights = new int[LEVELS];
+
+	private int threshold;
+	private boolean valid = false;
+
+	/**
+	 * Prepares buffers for image of the given size and returns the plane of
+	 * level {@code 0}, to be filled with luminance values in row-major order.
+	 * The pyramid is invalid until {@link #build(int)} is called.
+	 *
+	 * @param width
+	 * @param height
+	 * @return
+	 */
+	public byte[] prepare(int width, int height) {
+		valid = false;
+		for (int l = 0; l < LEVELS; l++) {
+			widths[l] = width >> l;
+			heights[l] = height >> l;
+			if (planes[l].length < widths[l] * heights[l]) {
+				planes[l] = new byte[widths[l] * heights[l]];
+			}
+		}
+		return planes[0];
+	}
+
+	/**
+	 * Computes the smaller levels from the level {@code 0}.
+	 *
+	 * @param threshold
+	 *            luminance at or below which a point is considered trail
+	 */
+	public void build(int threshold) {
+		for (int l = 1; l < LEVELS; l++) {
+			downsample(l);
+		}
+		this.threshold = threshold;
+		valid = true;
+	}
+
+	private void downsample(int level) {
+		byte[] src = planes[level - 1];
+		byte[] dst = planes[level];
+		int sw = widths[level - 1];
+		int w = widths[level];
+		int h = heights[level];
+
+		for (int y = 0; y < h; y++) {
+			int s0 = 2 * y * sw;
+			int s1 = s0 + sw;
+			int o = y * w;
+			for (int x = 0; x < w; x++) {
+				int sx = 2 * x;
+				int sum = (src[s0 + sx] & 0xFF) + (src[s0 + sx + 1] & 0xFF) + (src[s1 + sx] & 0xFF)
+						+ (src[s1 + sx + 1] & 0xFF);
+				dst[o + x] = (byte) (sum >> 2);
+			}
+		}
+	}
+
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * @return {@code true}, if the pyramid was built for the current image
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	public int getWidth(int level) {
+		return widths[level];
+	}
+
+	public int getHeight(int level) {
+		return heights[level];
+	}
+
+	public int getLuminance(int level, int x, int y) {
+		return planes[level][y * widths[level] + x] & 0xFF;
+	}
+
+	public boolean isTrail(int level, int x, int y) {
+		return getLuminance(level, x, y) <= threshold;
+	}
+
+	/**
+	 * Finds the trail point nearest to the given point on the same row, going
+	 * from the coarsest level to the full resolution. On each finer level only
+	 * a small window around the previous result is searched.
+	 *
+	 * @param x
+	 *            full resolution coordinate
+	 * @param y
+	 *            full resolution coordinate
+	 * @param maxdst
+	 *            maximum distance in full resolution pixels
+	 * @return full resolution {@code x} coordinate of the trail point, or
+	 *         {@code -1} if none was found
+	 */
+	public int findNearestTrailX(int x, int y, int maxdst) {
+		int level = LEVELS - 1;
+		if (!valid || widths[level] == 0 || heights[level] == 0)
+			return -1;
+
+		int cx = nearest(level, x >> level, y >> level, maxdst >> level);
+		while (cx >= 0 && level > 0) {
+			level--;
+			cx = nearest(level, 2 * cx + 1, y >> level, REFINE_RADIUS);
+		}
+		if (cx < 0)
+			return -1;
+
+		// the coarse levels see only blocks fully covered by trail, move to
+		// the edge of the trail nearest to the original point
+		int step = Integer.signum(x - cx);
+		int offset = Math.min(y, heights[0] - 1) * widths[0];
+		while (step != 0 && cx != x && (planes[0][offset + cx + step] & 0xFF) <= threshold) {
+			cx += step;
+		}
+		return cx;
+	}
+
+	/**
+	 * Searches the row of the given level alternately to both sides.
+	 *
+	 * @return {@code x} coordinate on the level, or {@code -1}
+	 */
+	private int nearest(int level, int x, int y, int maxdst) {
+		int w = widths[level];
+		y = Math.min(y, heights[level] - 1);
+		x = Math.min(x, w - 1);
+		int offset = y * w;
+		byte[] plane = planes[level];
+
+		for (int i = 0; i <= maxdst; i++) {
+			int xr = x + i;
+			int xl = x - i;
+			if (xr >= w && xl < 0)
+				break;
+			if (xr < w && (plane[offset + xr] & 0xFF) <= threshold)
+				return xr;
+			if (i != 0 && xl >= 0 && (plane[offset + xl] & 0xFF) <= threshold)
+				return xl;
+		}
+		return -1;
+	}
+
+}
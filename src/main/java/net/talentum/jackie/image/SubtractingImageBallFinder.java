@@ -4,25 +4,71 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 
 import net.talentum.jackie.image.output.ImageOutput;
-import net.talentum.jackie.module.impl.BlurImageModifierModule;
-import net.talentum.jackie.system.ConfigurationManager;
+import net.talentum.jackie.system.Config;
 
 /**
  * Ball finder that finds ball by comparing a photo without added light with
  * photo with supplied light.
- * 
+ *
+ * <p>
+ * Only luminance (see {@link Luminance}) is subtracted. The difference is
+ * blurred with a separable 5-tap binomial filter ({@code 1 4 6 4 1}) and the
+ * brightest point is tracked within the vertical blur pass, so the blurred
+ * image is never scanned again. All buffers are kept between calls and
+ * reallocated only when the image size changes.
+ * </p>
+ *
+ * <p>
+ * With {@link #findAccumulated(BufferedImage, BufferedImage)}, the blurred
+ * differences of successive pairs are summed up and the maximum is searched
+ * in the sum, which suppresses noise that does not repeat across pairs.
+ * </p>
+ *
  * @author JJurM
  */
 public class SubtractingImageBallFinder extends ImageOutput {
 
-	BlurImageModifierModule blur = new BlurImageModifierModule();
+	private static final int[] KERNEL = { 1, 4, 6, 4, 1 };
+	private static final int RADIUS = KERNEL.length / 2;
+
+	/**
+	 * The blur kernel sums up to 16 in each direction
+	 */
+	private static final int KERNEL_SHIFT = 8;
+
 	boolean first = true;
 
 	BufferedImage img1;
 	BufferedImage img2;
-	public BufferedImage result;
+
+	private int width;
+	private int height;
+
+	private int[] row1 = new int[0];
+	private byte[] luminance1 = new byte[0];
+	private byte[] luminance2 = new byte[0];
+
+	/**
+	 * Luminance difference, replaced by the blurred difference after
+	 * {@link #find(BufferedImage, BufferedImage)}.
+	 */
+	private int[] diff = new int[0];
+
+	/**
+	 * Horizontally blurred difference
+	 */
+	private int[] tmp = new int[0];
+
+	/**
+	 * Sum of blurred differences since the last {@link #resetAccumulation()}
+	 */
+	private int[] acc = new int[0];
+	private int accumulated = 0;
+
+	private BufferedImage result;
 
 	public SubtractingImageBallFinder() {
 		super("");
@@ -43,6 +89,7 @@ public class SubtractingImageBallFinder extends ImageOutput {
 			img2 = image;
 
 			Point p = find(img1, img2);
+			BufferedImage result = getResultImage();
 
 			if (p != null) {
 				Graphics g = result.getGraphics();
@@ -57,9 +104,83 @@ public class SubtractingImageBallFinder extends ImageOutput {
 		}
 	}
 
+	/**
+	 * @return width of the images processed by the last
+	 *         {@link #find(BufferedImage, BufferedImage)}
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the images processed by the last
+	 *         {@link #find(BufferedImage, BufferedImage)}
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Renders the blurred difference computed by the last
+	 * {@link #find(BufferedImage, BufferedImage)} as a grayscale image. Meant
+	 * for previews only, the image object is reused.
+	 *
+	 * @return
+	 */
+	public BufferedImage getResultImage() {
+		if (result == null || result.getWidth() != width || result.getHeight() != height) {
+			result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int v = Math.min(diff[y * width + x], 255);
+				row1[x] = (v << 16) | (v << 8) | v;
+			}
+			result.setRGB(0, y, width, 1, row1, 0, width);
+		}
+		return result;
+	}
+
+	private void ensureBuffers(int width, int height) {
+		this.width = width;
+		this.height = height;
+		if (row1.length < width) {
+			row1 = new int[width];
+			luminance1 = new byte[width];
+			luminance2 = new byte[width];
+		}
+		if (diff.length < width * height) {
+			diff = new int[width * height];
+			tmp = new int[width * height];
+		}
+	}
+
+	/**
+	 * Clears the sum of differences used by
+	 * {@link #findAccumulated(BufferedImage, BufferedImage)}.
+	 */
+	public void resetAccumulation() {
+		accumulated = 0;
+	}
+
+	/**
+	 * Adds the difference of the given pair to the accumulated sum and finds
+	 * the ball in the sum. The threshold is scaled by the number of
+	 * accumulated pairs.
+	 *
+	 * @param img1
+	 *            image without light
+	 * @param img2
+	 *            image with light
+	 * @return point of ball, or {@code null}
+	 */
+	public Point findAccumulated(BufferedImage img1, BufferedImage img2) {
+		return find(img1, img2, true);
+	}
+
 	/**
 	 * Finds point of ball, or returns {@code null} if the ball was not found.
-	 * 
+	 *
 	 * @param img1
 	 *            image without light
 	 * @param img2
@@ -67,40 +188,82 @@ public class SubtractingImageBallFinder extends ImageOutput {
 	 * @return
 	 */
 	public Point find(BufferedImage img1, BufferedImage img2) {
-		// create image
-		result = new BufferedImage(img1.getWidth(), img1.getHeight(), BufferedImage.TYPE_INT_RGB);
-		Color c1, c2, r;
-
-		// do the subtracting
-		for (int x = 0; x < img1.getWidth(); x++) {
-			for (int y = 0; y < img1.getHeight(); y++) {
-				c1 = new Color(img1.getRGB(x, y));
-				c2 = new Color(img2.getRGB(x, y));
-				r = new Color(Math.max(c2.getRed() - c1.getRed(), 0), Math.max(c2.getBlue() - c1.getBlue(), 0),
-						Math.max(c2.getGreen() - c1.getGreen(), 0));
-				result.setRGB(x, y, r.getRGB());
+		return find(img1, img2, false);
+	}
+
+	private Point find(BufferedImage img1, BufferedImage img2, boolean accumulate) {
+		int w = img1.getWidth();
+		int h = img1.getHeight();
+		if (w != width || h != height) {
+			accumulated = 0;
+		}
+		ensureBuffers(w, h);
+		if (accumulate) {
+			if (acc.length < w * h) {
+				acc = new int[w * h];
+			}
+			if (accumulated == 0) {
+				Arrays.fill(acc, 0, w * h, 0);
+			}
+			accumulated++;
+		}
+
+		// subtract luminance, row by row
+		for (int y = 0; y < h; y++) {
+			Luminance.convertRow(img1, y, luminance1, 0, row1);
+			Luminance.convertRow(img2, y, luminance2, 0, row1);
+			int offset = y * w;
+			for (int x = 0; x < w; x++) {
+				diff[offset + x] = Math.max((luminance2[x] & 0xFF) - (luminance1[x] & 0xFF), 0);
+			}
+		}
+
+		// horizontal blur pass
+		for (int y = 0; y < h; y++) {
+			int offset = y * w;
+			for (int x = 0; x < w; x++) {
+				if (x < RADIUS || x >= w - RADIUS) {
+					tmp[offset + x] = 0;
+					continue;
+				}
+				int sum = 0;
+				for (int k = 0; k < KERNEL.length; k++) {
+					sum += KERNEL[k] * diff[offset + x + k - RADIUS];
+				}
+				tmp[offset + x] = sum;
 			}
 		}
 
-		// blur image
-		result = blur.modify(result);
-
-		// find point with maximum brightness
-		double val;
-		double maxVal = ConfigurationManager.getGeneralConfiguration().getInt("params/ballFinding/minMaxValue");
-		Point maxPoint = null;
-		for (int x = 0; x < result.getWidth(); x++) {
-			for (int y = 0; y < result.getHeight(); y++) {
-				r = new Color(result.getRGB(x, y));
-				val = ((int) (r.getRed() * 0.299) + (int) (r.getGreen() * 0.587) + (int) (r.getBlue() * 0.114));
+		// vertical blur pass, fused with searching for the maximum
+		int maxVal = Config.ballMinMaxValue * (accumulate ? accumulated : 1);
+		int maxX = -1, maxY = -1;
+		for (int y = 0; y < h; y++) {
+			int offset = y * w;
+			if (y < RADIUS || y >= h - RADIUS) {
+				for (int x = 0; x < w; x++) {
+					diff[offset + x] = 0;
+				}
+				continue;
+			}
+			for (int x = 0; x < w; x++) {
+				int sum = 0;
+				for (int k = 0; k < KERNEL.length; k++) {
+					sum += KERNEL[k] * tmp[offset + (k - RADIUS) * w + x];
+				}
+				int val = sum >> KERNEL_SHIFT;
+				diff[offset + x] = val;
+				if (accumulate) {
+					val = acc[offset + x] += val;
+				}
 				if (val > maxVal) {
 					maxVal = val;
-					maxPoint = new Point(x, y);
+					maxX = x;
+					maxY = y;
 				}
 			}
 		}
-		
-		return maxPoint;
+
+		return maxX < 0 ? null : new Point(maxX, maxY);
 	}
 
 }
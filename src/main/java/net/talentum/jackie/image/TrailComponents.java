@@ -0,0 +1,300 @@
+package net.talentum.jackie.image;
+
+import java.util.Arrays;
+
+/**
+ * Connected components of the trail mask. The mask is processed in its
+ * run-length encoding ({@link TrailRuns}); horizontal runs of trail points
+ * are merged with the overlapping runs of the previous row (8-connectivity)
+ * by union-find, so the points themselves are not read at all when the runs
+ * were built during thresholding.
+ *
+ * <p>
+ * For every component, its area, bounding box and centroid are available in
+ * constant time. The runs are kept grouped by rows, so spans of a component on
+ * a given row and the component at a given point can be found without
+ * touching the mask again. Components are numbered from {@code 0}; all buffers
+ * are reused for subsequent masks.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class TrailComponents {
+
+	/**
+	 * Runs the components were computed from
+	 */
+	private TrailRuns runs;
+
+	/**
+	 * Runs built by {@link #label(boolean[][], int, int)}
+	 */
+	private final TrailRuns ownRuns = new TrailRuns();
+
+	// union-find over runs, and component label of every run
+	private int[] parent = new int[256];
+	private int[] runLabel = new int[256];
+
+	// components
+	private int count;
+	private int largest;
+	private int[] area = new int[64];
+	private int[] minX = new int[64];
+	private int[] maxX = new int[64];
+	private int[] minY = new int[64];
+	private int[] maxY = new int[64];
+	private long[] sumX = new long[64];
+	private long[] sumY = new long[64];
+	private int[] runCount = new int[64];
+
+	/**
+	 * Labels the given mask.
+	 *
+	 * @param mask
+	 *            mask indexed {@code mask[x][y]}
+	 * @param width
+	 * @param height
+	 * @return this object
+	 */
+	public TrailComponents label(boolean[][] mask, int width, int height) {
+		return label(ownRuns.build(mask, width, height));
+	}
+
+	/**
+	 * Labels the mask given by its run-length encoding, without reading the
+	 * mask itself. The runs must not be changed while this object is used.
+	 *
+	 * @param runs
+	 * @return this object
+	 */
+	public TrailComponents label(TrailRuns runs) {
+		this.runs = runs;
+		int n = runs.count;
+		if (parent.length < n) {
+			parent = new int[Math.max(n, parent.length * 2)];
+			runLabel = new int[parent.length];
+		}
+		for (int i = 0; i < n; i++) {
+			parent[i] = i;
+		}
+
+		int[] runStart = runs.runStart;
+		int[] runEnd = runs.runEnd;
+		int[] rowFirstRun = runs.rowFirstRun;
+		for (int y = 1; y < runs.getHeight(); y++) {
+			int p = rowFirstRun[y - 1], pEnd = rowFirstRun[y];
+			int c = pEnd, cEnd = rowFirstRun[y + 1];
+			while (p < pEnd && c < cEnd) {
+				// 8-connectivity: runs touching diagonally are connected
+				if (runEnd[p] + 1 < runStart[c]) {
+					p++;
+				} else if (runEnd[c] + 1 < runStart[p]) {
+					c++;
+				} else {
+					union(p, c);
+					if (runEnd[p] < runEnd[c]) {
+						p++;
+					} else {
+						c++;
+					}
+				}
+			}
+		}
+
+		return finish();
+	}
+
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void union(int a, int b) {
+		int ra = find(a);
+		int rb = find(b);
+		if (ra < rb) {
+			parent[rb] = ra;
+		} else if (rb < ra) {
+			parent[ra] = rb;
+		}
+	}
+
+	/**
+	 * Assigns component labels to the runs and computes the component
+	 * statistics.
+	 *
+	 * @return this object
+	 */
+	private TrailComponents finish() {
+		int n = runs.count;
+		int[] runStart = runs.runStart;
+		int[] runEnd = runs.runEnd;
+		int[] rowFirstRun = runs.rowFirstRun;
+
+		count = 0;
+		// roots always precede the runs they represent
+		for (int i = 0; i < n; i++) {
+			int root = find(i);
+			if (root == i) {
+				ensureComponents(count + 1);
+				runLabel[i] = count++;
+			} else {
+				runLabel[i] = runLabel[root];
+			}
+		}
+
+		Arrays.fill(area, 0, count, 0);
+		Arrays.fill(minX, 0, count, Integer.MAX_VALUE);
+		Arrays.fill(maxX, 0, count, -1);
+		Arrays.fill(minY, 0, count, Integer.MAX_VALUE);
+		Arrays.fill(maxY, 0, count, -1);
+		Arrays.fill(sumX, 0, count, 0);
+		Arrays.fill(sumY, 0, count, 0);
+		Arrays.fill(runCount, 0, count, 0);
+
+		for (int y = 0; y < runs.getHeight(); y++) {
+			for (int i = rowFirstRun[y]; i < rowFirstRun[y + 1]; i++) {
+				int l = runLabel[i];
+				int len = runEnd[i] - runStart[i] + 1;
+				area[l] += len;
+				sumX[l] += (long) (runStart[i] + runEnd[i]) * len / 2;
+				sumY[l] += (long) y * len;
+				runCount[l]++;
+				minX[l] = Math.min(minX[l], runStart[i]);
+				maxX[l] = Math.max(maxX[l], runEnd[i]);
+				minY[l] = Math.min(minY[l], y);
+				maxY[l] = Math.max(maxY[l], y);
+			}
+		}
+
+		largest = -1;
+		for (int l = 0; l < count; l++) {
+			if (largest == -1 || area[l] > area[largest])
+				largest = l;
+		}
+		return this;
+	}
+
+	private void ensureComponents(int n) {
+		if (area.length < n) {
+			int capacity = Math.max(n, area.length * 2);
+			area = Arrays.copyOf(area, capacity);
+			minX = Arrays.copyOf(minX, capacity);
+			maxX = Arrays.copyOf(maxX, capacity);
+			minY = Arrays.copyOf(minY, capacity);
+			maxY = Arrays.copyOf(maxY, capacity);
+			sumX = Arrays.copyOf(sumX, capacity);
+			sumY = Arrays.copyOf(sumY, capacity);
+			runCount = Arrays.copyOf(runCount, capacity);
+		}
+	}
+
+	/**
+	 * @return run-length encoding of the labelled mask
+	 */
+	public TrailRuns getRuns() {
+		return runs;
+	}
+
+	/**
+	 * @return number of components
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return label of the component with the largest area, or {@code -1} if
+	 *         there are no components
+	 */
+	public int getLargest() {
+		return largest;
+	}
+
+	public int getArea(int label) {
+		return area[label];
+	}
+
+	public int getMinX(int label) {
+		return minX[label];
+	}
+
+	public int getMaxX(int label) {
+		return maxX[label];
+	}
+
+	public int getMinY(int label) {
+		return minY[label];
+	}
+
+	public int getMaxY(int label) {
+		return maxY[label];
+	}
+
+	public double getCentroidX(int label) {
+		return (double) sumX[label] / area[label];
+	}
+
+	public double getCentroidY(int label) {
+		return (double) sumY[label] / area[label];
+	}
+
+	/**
+	 * @return number of row runs the component consists of
+	 */
+	public int getRunCount(int label) {
+		return runCount[label];
+	}
+
+	/**
+	 * Returns label of the component containing the given point.
+	 *
+	 * @param x
+	 * @param y
+	 * @return the label, or {@code -1} if the point is not a trail point
+	 */
+	public int labelAt(int x, int y) {
+		int i = runs.findRun(x, y);
+		return i < 0 ? -1 : runLabel[i];
+	}
+
+	/**
+	 * Returns the leftmost point of the component on the given row.
+	 *
+	 * @param label
+	 * @param y
+	 * @return {@code x} coordinate, or {@code -1} if the component doesn't
+	 *         reach the row
+	 */
+	public int getSpanLeft(int label, int y) {
+		if (y < minY[label] || y > maxY[label])
+			return -1;
+		for (int i = runs.rowFirstRun[y]; i < runs.rowFirstRun[y + 1]; i++) {
+			if (runLabel[i] == label)
+				return runs.runStart[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the rightmost point of the component on the given row.
+	 *
+	 * @param label
+	 * @param y
+	 * @return {@code x} coordinate, or {@code -1} if the component doesn't
+	 *         reach the row
+	 */
+	public int getSpanRight(int label, int y) {
+		if (y < minY[label] || y > maxY[label])
+			return -1;
+		for (int i = runs.rowFirstRun[y + 1] - 1; i >= runs.rowFirstRun[y]; i--) {
+			if (runLabel[i] == label)
+				return runs.runEnd[i];
+		}
+		return -1;
+	}
+
+}
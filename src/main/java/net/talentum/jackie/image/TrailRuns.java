@@ -0,0 +1,209 @@
+package net.talentum.jackie.image;
+
+import java.util.Arrays;
+
+/**
+ * Run-length encoded trail mask. For every row, the horizontal runs of trail
+ * points are stored from left to right, so the span of the trail containing a
+ * given point is found by binary search over the runs of its row.
+ *
+ * <p>
+ * The index is built by the thresholding pass, by calling
+ * {@link #start(int, int)}, then {@link #point(int, boolean)} for every point
+ * of a row from left to right (or {@link #addRun(int, int)} for whole runs)
+ * and {@link #endRow(int)} for every row in order. Buffers are reused.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class TrailRuns {
+
+	private int width;
+	private int height;
+
+	int count;
+	int[] runStart = new int[256];
+	int[] runEnd = new int[256];
+	int[] rowFirstRun = new int[1];
+
+	private boolean valid = false;
+
+	/**
+	 * Start of the run being built by {@link #point(int, boolean)}, or
+	 * {@code -1}
+	 */
+	private int openStart = -1;
+
+	/**
+	 * Clears the index for a mask of the given size.
+	 *
+	 * @param width
+	 * @param height
+	 */
+	public void start(int width, int height) {
+		this.width = width;
+		this.height = height;
+		count = 0;
+		openStart = -1;
+		valid = false;
+		if (rowFirstRun.length < height + 1) {
+			rowFirstRun = new int[height + 1];
+		}
+		rowFirstRun[0] = 0;
+	}
+
+	/**
+	 * Appends run of trail points to the current row. Runs of a row must be
+	 * added from left to right.
+	 *
+	 * @param start
+	 *            {@code x} of the first point
+	 * @param end
+	 *            {@code x} of the last point, inclusive
+	 */
+	public void addRun(int start, int end) {
+		if (count == runStart.length) {
+			runStart = Arrays.copyOf(runStart, count * 2);
+			runEnd = Arrays.copyOf(runEnd, count * 2);
+		}
+		runStart[count] = start;
+		runEnd[count] = end;
+		count++;
+	}
+
+	/**
+	 * Records value of the next point of the current row.
+	 *
+	 * @param x
+	 * @param trail
+	 *            whether the point is a trail point
+	 */
+	public void point(int x, boolean trail) {
+		if (trail) {
+			if (openStart < 0)
+				openStart = x;
+		} else if (openStart >= 0) {
+			addRun(openStart, x - 1);
+			openStart = -1;
+		}
+	}
+
+	/**
+	 * Finishes the given row. When the last row is finished, the index
+	 * becomes valid.
+	 *
+	 * @param y
+	 */
+	public void endRow(int y) {
+		if (openStart >= 0) {
+			addRun(openStart, width - 1);
+			openStart = -1;
+		}
+		rowFirstRun[y + 1] = count;
+		if (y == height - 1) {
+			valid = true;
+		}
+	}
+
+	/**
+	 * Builds the index from a mask.
+	 *
+	 * @param mask
+	 *            mask indexed {@code mask[x][y]}
+	 * @param width
+	 * @param height
+	 * @return this object
+	 */
+	public TrailRuns build(boolean[][] mask, int width, int height) {
+		start(width, height);
+		for (int y = 0; y < height; y++) {
+			int x = 0;
+			while (x < width) {
+				while (x < width && !mask[x][y])
+					x++;
+				if (x == width)
+					break;
+				int start = x;
+				while (x < width && mask[x][y])
+					x++;
+				addRun(start, x - 1);
+			}
+			endRow(y);
+		}
+		return this;
+	}
+
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * @return {@code true}, if the index was completely built for the current
+	 *         mask
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return total number of runs
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return index of the first run of the row
+	 */
+	public int getRowFirstRun(int y) {
+		return rowFirstRun[y];
+	}
+
+	/**
+	 * @return index after the last run of the row
+	 */
+	public int getRowEndRun(int y) {
+		return rowFirstRun[y + 1];
+	}
+
+	public int getStart(int run) {
+		return runStart[run];
+	}
+
+	public int getEnd(int run) {
+		return runEnd[run];
+	}
+
+	/**
+	 * Finds the run on row {@code y} containing {@code x}, by binary search.
+	 *
+	 * @param x
+	 * @param y
+	 * @return index of the run, or {@code -1} if the point is not a trail point
+	 */
+	public int findRun(int x, int y) {
+		if (y < 0 || y >= height)
+			return -1;
+		int lo = rowFirstRun[y], hi = rowFirstRun[y + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (runEnd[mid] < x) {
+				lo = mid + 1;
+			} else if (runStart[mid] > x) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+}
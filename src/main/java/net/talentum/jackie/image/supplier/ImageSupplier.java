@@ -17,6 +17,17 @@ public interface ImageSupplier {
 	 */
 	public BufferedImage getImage();
 
+	/**
+	 * Returns time the image last returned by {@link #getImage()} was
+	 * captured. Suppliers that don't know it return the current time, so this
+	 * should be called right after {@link #getImage()}.
+	 * 
+	 * @return time from {@link System#nanoTime()}
+	 */
+	public default long getTimestamp() {
+		return System.nanoTime();
+	}
+
 	public void close();
 
 }
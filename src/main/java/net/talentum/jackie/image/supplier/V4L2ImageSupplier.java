@@ -0,0 +1,237 @@
+package net.talentum.jackie.image.supplier;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Image supplier reading YUYV frames from a V4L2 device. Capture is done by
+ * {@code v4l2-ctl}, which streams from mmap'd kernel buffers to its standard
+ * output, so there is no conversion into RGB on the way. Only the luma plane
+ * is kept, the images are {@code TYPE_BYTE_GRAY} and their raster data can be
+ * used directly as luminance input for thresholding (see
+ * {@link net.talentum.jackie.image.Luminance}).
+ *
+ * <p>
+ * Frames are read by a daemon thread, {@link #getImage()} returns the latest
+ * complete frame and waits only if it has already been returned. Three images
+ * are rotated and the reader never writes the latest complete one or the one
+ * last returned, so the returned image is valid until the next call. The
+ * timestamp of a frame is taken from {@link System#nanoTime()} when its
+ * first bytes arrive.
+ * </p>
+ *
+ * <p>
+ * Can be tried with the {@code vivid} virtual driver:
+ * {@code modprobe vivid}.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class V4L2ImageSupplier implements ImageSupplier {
+
+	private final int width;
+	private final int height;
+
+	private Process process;
+	private Thread reader;
+	private volatile boolean running = true;
+
+	private final BufferedImage[] images = new BufferedImage[3];
+	private final long[] timestamps = new long[3];
+
+	// guarded by this
+	private int latest = -1;
+	private int returned = -1;
+	private long frameNumber = 0;
+	private long returnedFrameNumber = 0;
+
+	/**
+	 * @param device
+	 *            path of the device, e.g. {@code /dev/video0}
+	 * @param width
+	 * @param height
+	 * @throws IOException
+	 *             if {@code v4l2-ctl} can't be started
+	 */
+	public V4L2ImageSupplier(String device, int width, int height) throws IOException {
+		this.width = width;
+		this.height = height;
+		for (int i = 0; i < images.length; i++) {
+			images[i] = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		}
+
+		ProcessBuilder pb = new ProcessBuilder("v4l2-ctl", "-d", device,
+				String.format("--set-fmt-video=width=%d,height=%d,pixelformat=YUYV", width, height),
+				"--stream-mmap=4", "--stream-to=-");
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		process = pb.start();
+
+		reader = new Thread(this::read, "V4L2 reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void read() {
+		byte[] frame = new byte[width * height * 2];
+		try (InputStream is = process.getInputStream()) {
+			while (running) {
+				// read one whole frame
+				int n = 0;
+				long timestamp = 0;
+				while (n < frame.length) {
+					int r = is.read(frame, n, frame.length - n);
+					if (r < 0)
+						return;
+					if (n == 0)
+						timestamp = System.nanoTime();
+					n += r;
+				}
+
+				int target;
+				synchronized (this) {
+					target = free();
+				}
+
+				// luma is every even byte: Y0 U Y1 V
+				byte[] luma = ((DataBufferByte) images[target].getRaster().getDataBuffer()).getData();
+				for (int i = 0; i < luma.length; i++) {
+					luma[i] = frame[2 * i];
+				}
+
+				synchronized (this) {
+					timestamps[target] = timestamp;
+					latest = target;
+					frameNumber++;
+					notifyAll();
+				}
+			}
+		} catch (IOException e) {
+			if (running)
+				e.printStackTrace();
+		} finally {
+			synchronized (this) {
+				running = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return index of an image that is neither the latest nor the returned
+	 *         one
+	 */
+	private int free() {
+		for (int i = 0; i < images.length; i++) {
+			if (i != latest && i != returned)
+				return i;
+		}
+		throw new IllegalStateException();
+	}
+
+	/**
+	 * Returns the latest frame, waiting for a new one if the latest was already
+	 * returned. The image is not written until the next call.
+	 *
+	 * @return the image, or {@code null} if the capture has stopped
+	 */
+	@Override
+	public synchronized BufferedImage getImage() {
+		while (running && frameNumber == returnedFrameNumber) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		if (frameNumber == returnedFrameNumber)
+			return null;
+		returnedFrameNumber = frameNumber;
+		returned = latest;
+		return images[returned];
+	}
+
+	/**
+	 * @return timestamp ({@link System#nanoTime()}) of the frame last returned
+	 *         by {@link #getImage()}
+	 */
+	@Override
+	public synchronized long getTimestamp() {
+		return returned < 0 ? 0 : timestamps[returned];
+	}
+
+	/**
+	 * @return number of frames captured so far
+	 */
+	public synchronized long getFrameNumber() {
+		return frameNumber;
+	}
+
+	/**
+	 * Copies luma plane of the frame last returned by {@link #getImage()}.
+	 *
+	 * @param dst
+	 *            array of at least {@code width * height}
+	 */
+	public synchronized void getLuminance(byte[] dst) {
+		if (returned < 0) {
+			Arrays.fill(dst, 0, width * height, (byte) 0);
+			return;
+		}
+		byte[] luma = ((DataBufferByte) images[returned].getRaster().getDataBuffer()).getData();
+		System.arraycopy(luma, 0, dst, 0, width * height);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		process.destroy();
+		reader.interrupt();
+	}
+
+	/**
+	 * Parameter is {@code device[:widthxheight]}, default resolution is
+	 * 640x480.
+	 */
+	public static class Provider extends ImageSupplierProvider {
+
+		public Provider(String name) {
+			super(name);
+		}
+
+		@Override
+		public ImageSupplier provide(String param) {
+			String device = param;
+			int width = 640, height = 480;
+			int colon = param.indexOf(':');
+			if (colon >= 0) {
+				device = param.substring(0, colon);
+				String[] size = param.substring(colon + 1).split("x");
+				width = Integer.parseInt(size[0]);
+				height = Integer.parseInt(size[1]);
+			}
+			if (!device.startsWith("/")) {
+				device = "/dev/video" + device;
+			}
+			try {
+				return new V4L2ImageSupplier(device, width, height);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+
+	}
+
+}
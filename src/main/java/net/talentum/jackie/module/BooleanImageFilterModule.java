@@ -2,6 +2,9 @@ package net.talentum.jackie.module;
 
 import java.awt.image.BufferedImage;
 
+import net.talentum.jackie.image.Frame;
+import net.talentum.jackie.robot.MomentData;
+
 /**
  * Module interface that takes an image and returns boolean array.
  * 
@@ -11,4 +14,31 @@ public interface BooleanImageFilterModule {
 
 	public boolean[][] filter(BufferedImage image);
 
+	/**
+	 * Filters the image of the given {@link MomentData}. Implementations may
+	 * store side outputs of the pass over pixels (such as
+	 * {@link MomentData#runs}) into the data. The default
+	 * implementation only calls {@link #filter(BufferedImage)}.
+	 * 
+	 * @param image
+	 * @param d
+	 * @return
+	 */
+	public default boolean[][] filter(BufferedImage image, MomentData d) {
+		return filter(image);
+	}
+
+	/**
+	 * Filters the frame, like {@link #filter(BufferedImage, MomentData)}. The
+	 * default implementation filters {@link Frame#getImage()}.
+	 * 
+	 * @param frame
+	 * @param d
+	 *            may be {@code null}
+	 * @return
+	 */
+	public default boolean[][] filter(Frame frame, MomentData d) {
+		return d != null ? filter(frame.getImage(), d) : filter(frame.getImage());
+	}
+
 }
@@ -2,6 +2,8 @@ package net.talentum.jackie.module;
 
 import java.awt.image.BufferedImage;
 
+import net.talentum.jackie.image.Frame;
+
 /**
  * Module interface that takes one image and returns another, modified.
  * 
@@ -10,5 +12,17 @@ import java.awt.image.BufferedImage;
 public interface ImageModifierModule {
 
 	public BufferedImage modify(BufferedImage image);
-	
+
+	/**
+	 * Modifies the frame. The default implementation goes through
+	 * {@link #modify(BufferedImage)}; modules that can work on luminance only
+	 * should override it.
+	 * 
+	 * @param frame
+	 * @return
+	 */
+	public default Frame modify(Frame frame) {
+		return new Frame(modify(frame.getImage()));
+	}
+
 }
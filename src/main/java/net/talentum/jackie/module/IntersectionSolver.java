@@ -3,8 +3,23 @@ package net.talentum.jackie.module;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
 
+import net.talentum.jackie.robot.MomentData;
+
 public interface IntersectionSolver {
 
 	public Point findMark(BufferedImage img, int y);
+
+	/**
+	 * Finds intersection mark on the given row of the image of the
+	 * {@link MomentData}. Implementations may use the mark rows precomputed
+	 * during thresholding. The default implementation scans the image.
+	 * 
+	 * @param d
+	 * @param y
+	 * @return
+	 */
+	public default Point findMark(MomentData d, int y) {
+		return findMark(d.image, y);
+	}
 	
 }
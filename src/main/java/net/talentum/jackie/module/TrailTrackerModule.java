@@ -0,0 +1,68 @@
+package net.talentum.jackie.module;
+
+import java.awt.Point;
+
+import net.talentum.jackie.robot.MomentData;
+
+/**
+ * Module interface for tracking the trail across consecutive images. The
+ * tracker remembers where the trail borders were found on each horizontal
+ * scanline and predicts where the trail will be in the next image, so that the
+ * search does not have to start from scratch.
+ * 
+ * @author JJurM
+ */
+public interface TrailTrackerModule {
+
+	/**
+	 * Returns trail point on the scanline {@code y}, found in the window
+	 * predicted from the previous images.
+	 * 
+	 * @param d
+	 * @param y
+	 *            the scanline
+	 * @return a trail point, or {@code null} when there is no prediction or no
+	 *         trail point has been found in the predicted window
+	 */
+	public Point predict(MomentData d, int y);
+
+	/**
+	 * Checks whether borders found from the predicted point are consistent
+	 * with the tracked trail. Consistent borders count as a hit.
+	 * 
+	 * @param y
+	 *            the scanline
+	 * @param l
+	 *            found left border
+	 * @param r
+	 *            found right border
+	 * @return {@code true} if the prediction has been confirmed
+	 */
+	public boolean confirm(int y, Point l, Point r);
+
+	/**
+	 * Registers the final result of the search on the scanline.
+	 * 
+	 * @param y
+	 *            the scanline
+	 * @param l
+	 *            left border, or {@code null} if the trail was not found
+	 * @param r
+	 *            right border, or {@code null} if the trail was not found
+	 */
+	public void update(int y, Point l, Point r);
+
+	/**
+	 * Returns ratio of scanlines resolved from the prediction to all updated
+	 * scanlines, since the last {@link #resetStatistics()}.
+	 * 
+	 * @return number between 0 and 1
+	 */
+	public double getHitRate();
+
+	/**
+	 * Resets counters used for computing the hit rate.
+	 */
+	public void resetStatistics();
+
+}
@@ -0,0 +1,183 @@
+package net.talentum.jackie.module.impl;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import net.talentum.jackie.image.Frame;
+import net.talentum.jackie.module.BooleanImageFilterModule;
+import net.talentum.jackie.robot.MomentData;
+import net.talentum.jackie.tools.OtsuThreshold;
+
+/**
+ * Filters the image by a luminance threshold chosen for every image by Otsu's
+ * method, instead of a fixed value.
+ *
+ * <p>
+ * Works on the luminance plane of a {@link Frame}. A histogram is built from
+ * every second pixel in both directions, the threshold is computed from it
+ * and the boolean image is then created from the luminance. The luminance is
+ * produced by the {@link Frame} or an image modifier, which know nothing of
+ * thresholding, so the histogram is sampled from the finished plane; a
+ * quarter of the pixels is read. Optionally, the image is divided into tiles,
+ * each of which gets its own threshold. When the histogram of the whole image
+ * does not show enough contrast between the two classes, the supplied fixed
+ * threshold is used. A tile without enough contrast is probably uniform
+ * background; its threshold is set {@code minContrast} below its mean
+ * luminance, so that only distinctly darker spots in it are considered trail.
+ * </p>
+ *
+ * <p>
+ * Like {@link UnivBooleanImageFilterModule}, the pass reads only luminance and
+ * also fills the luminance pyramid and the run-length encoding of the
+ * {@link MomentData}. The pyramid uses the global threshold.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class AdaptiveBooleanImageFilterModule implements BooleanImageFilterModule {
+
+	private static final int SAMPLE_MASK = 1;
+
+	protected int tilesX;
+	protected int tilesY;
+	protected Supplier<Integer> fallbackTresholdSupplier;
+	protected Supplier<Integer> minContrastSupplier;
+
+	private final Frame ownFrame = new Frame();
+	private int[] histogram = new int[256];
+	private int[] tileHistograms;
+	private int[] tileTresholds;
+	private int[] columnTiles = new int[0];
+	private final OtsuThreshold otsu = new OtsuThreshold();
+
+	private volatile int lastTreshold = -1;
+
+	/**
+	 * @param tilesX
+	 *            number of tiles in horizontal direction
+	 * @param tilesY
+	 *            number of tiles in vertical direction
+	 * @param fallbackTresholdSupplier
+	 *            threshold used when the whole image has too low contrast
+	 * @param minContrastSupplier
+	 *            minimum difference between mean luminance of trail and
+	 *            background, for the computed threshold to be used
+	 */
+	public AdaptiveBooleanImageFilterModule(int tilesX, int tilesY, Supplier<Integer> fallbackTresholdSupplier,
+			Supplier<Integer> minContrastSupplier) {
+		this.tilesX = Math.max(tilesX, 1);
+		this.tilesY = Math.max(tilesY, 1);
+		this.fallbackTresholdSupplier = fallbackTresholdSupplier;
+		this.minContrastSupplier = minContrastSupplier;
+		tileHistograms = new int[this.tilesX * this.tilesY * 256];
+		tileTresholds = new int[this.tilesX * this.tilesY];
+	}
+
+	/**
+	 * Creates module with single global threshold.
+	 *
+	 * @param fallbackTresholdSupplier
+	 * @param minContrastSupplier
+	 */
+	public AdaptiveBooleanImageFilterModule(Supplier<Integer> fallbackTresholdSupplier,
+			Supplier<Integer> minContrastSupplier) {
+		this(1, 1, fallbackTresholdSupplier, minContrastSupplier);
+	}
+
+	/**
+	 * @return global threshold used for the last image
+	 */
+	public int getLastTreshold() {
+		return lastTreshold;
+	}
+
+	@Override
+	public boolean[][] filter(BufferedImage img) {
+		return filter(img, null);
+	}
+
+	@Override
+	public synchronized boolean[][] filter(BufferedImage img, MomentData d) {
+		return filter(ownFrame.set(img), d);
+	}
+
+	@Override
+	public synchronized boolean[][] filter(Frame frame, MomentData d) {
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		boolean[][] bool = new boolean[width][height];
+		boolean tiled = tileTresholds.length > 1;
+
+		if (columnTiles.length < width) {
+			columnTiles = new int[width];
+		}
+		for (int j = 0; j < width; j++) {
+			columnTiles[j] = j * tilesX / width;
+		}
+
+		byte[] luminance = frame.getLuminance();
+		if (d != null) {
+			System.arraycopy(luminance, 0, d.pyramid.prepare(width, height), 0, width * height);
+		}
+
+		// histograms
+		Arrays.fill(histogram, 0);
+		if (tiled) {
+			Arrays.fill(tileHistograms, 0);
+		}
+		for (int i = 0; i < height; i += SAMPLE_MASK + 1) {
+			int offset = i * width;
+			int tileRowOffset = (i * tilesY / height) * tilesX;
+			for (int j = 0; j < width; j += SAMPLE_MASK + 1) {
+				int lum = luminance[offset + j] & 0xFF;
+				histogram[lum]++;
+				if (tiled) {
+					tileHistograms[(tileRowOffset + columnTiles[j]) * 256 + lum]++;
+				}
+			}
+		}
+
+		// choose thresholds
+		int minContrast = minContrastSupplier.get();
+		otsu.compute(histogram, 0, 256);
+		int t = otsu.contrast >= minContrast ? otsu.threshold : fallbackTresholdSupplier.get();
+		lastTreshold = t;
+
+		for (int k = 0; k < tileTresholds.length; k++) {
+			if (tiled) {
+				otsu.compute(tileHistograms, k * 256, 256);
+				tileTresholds[k] = otsu.contrast >= minContrast ? otsu.threshold
+						: Math.max(otsu.mean - minContrast, 0);
+			} else {
+				tileTresholds[k] = t;
+			}
+		}
+
+		// threshold pass
+		if (d != null) {
+			d.runs.start(width, height);
+		}
+		for (int i = 0; i < height; i++) {
+			int tileRowOffset = (i * tilesY / height) * tilesX;
+			int offset = i * width;
+			for (int j = 0; j < width; j++) {
+				boolean trail = (luminance[offset + j] & 0xFF) <= tileTresholds[tileRowOffset + columnTiles[j]];
+				bool[j][i] = trail;
+				if (d != null) {
+					d.runs.point(j, trail);
+				}
+			}
+			if (d != null) {
+				d.runs.endRow(i);
+			}
+		}
+
+		if (d != null) {
+			d.pyramid.build(t);
+		}
+
+		return bool;
+	}
+
+}
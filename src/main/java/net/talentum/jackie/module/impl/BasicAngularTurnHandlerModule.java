@@ -9,6 +9,12 @@ import net.talentum.jackie.system.Config;
 
 public class BasicAngularTurnHandlerModule implements AngularTurnHandlerModule {
 
+	// scratch points for probing, reused between calls
+	private final Point pointR1 = new Point();
+	private final Point pointR2 = new Point();
+	private final Point pointL1 = new Point();
+	private final Point pointL2 = new Point();
+
 	@Override
 	public Situation detectAndProceed(MomentData d, Point expected, double direction) {
 		// get perpendicular line
@@ -17,10 +23,10 @@ public class BasicAngularTurnHandlerModule implements AngularTurnHandlerModule {
 		// get average width of last n points
 		double avgwidth = d.mTrailBordersMonitor.getTrailWidth();
 
-		Point pointR1 = d.move(expected, perpAngle, avgwidth * 1.5);
-		Point pointR2 = d.move(pointR1, direction, Config.movedst * 2);
-		Point pointL1 = d.move(expected, perpAngle, avgwidth * -1.5);
-		Point pointL2 = d.move(pointL1, direction, Config.movedst * 2);
+		d.move(expected, perpAngle, avgwidth * 1.5, pointR1);
+		d.move(pointR1, direction, Config.movedst * 2, pointR2);
+		d.move(expected, perpAngle, avgwidth * -1.5, pointL1);
+		d.move(pointL1, direction, Config.movedst * 2, pointL2);
 
 		if (!(d.inBounds(pointR1) && d.inBounds(pointL1) && d.inBounds(pointR2) && d.inBounds(pointL2)))
 			return null;
@@ -1,24 +1,67 @@
 package net.talentum.jackie.module.impl;
 
-import java.awt.Color;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.util.function.Function;
 
+import net.talentum.jackie.image.Frame;
 import net.talentum.jackie.module.IntersectionSolver;
+import net.talentum.jackie.robot.MomentData;
 import net.talentum.jackie.system.Config;
 
+/**
+ * Looks for the green intersection mark as the pixel with the highest ratio
+ * of green to the other channels, see {@link #markValue(int)}. Only the
+ * rows that are looked at are read; with {@link MomentData}, their maxima are
+ * kept in {@link MomentData#markRowX} and {@link MomentData#markRowValue}.
+ * 
+ * @author JJurM
+ */
 public class BasicIntersectionSolver implements IntersectionSolver {
 
-	Function<Color, Double> function;
+	private int[] row = new int[0];
 
-	public BasicIntersectionSolver() {
-		function = new Function<Color, Double>() {
-			@Override
-			public Double apply(Color c) {
-				return ((double) c.getGreen()) * 100 / (c.getBlue() + c.getRed() + 1);
+	/**
+	 * Computes value of the intersection mark criterion for the given pixel.
+	 * 
+	 * @param rgb
+	 *            packed RGB value
+	 * @return
+	 */
+	public static double markValue(int rgb) {
+		int r = (rgb >> 16) & 0xFF;
+		int g = (rgb >> 8) & 0xFF;
+		int b = rgb & 0xFF;
+		return ((double) g) * 100 / (b + r + 1);
+	}
+
+	/**
+	 * Finds the pixel with the highest {@link #markValue(int)} in a row. The
+	 * values are compared as fractions by cross-multiplying ({@code g1 * den2 >
+	 * g2 * den1}), without dividing per pixel.
+	 * 
+	 * @param rgb
+	 *            packed RGB values
+	 * @param offset
+	 *            index of the first pixel of the row
+	 * @param width
+	 *            number of pixels in the row
+	 * @return index of the pixel relative to {@code offset}, or {@code -1} if
+	 *         all values are {@code 0}
+	 */
+	public static int findRowMax(int[] rgb, int offset, int width) {
+		int maxG = 0, maxDen = 1;
+		int maxX = -1;
+		for (int x = 0; x < width; x++) {
+			int p = rgb[offset + x];
+			int g = (p >> 8) & 0xFF;
+			int den = ((p >> 16) & 0xFF) + (p & 0xFF) + 1;
+			if (g * maxDen > maxG * den) {
+				maxG = g;
+				maxDen = den;
+				maxX = x;
 			}
-		};
+		}
+		return maxX;
 	}
 
 	/**
@@ -26,21 +69,43 @@ public class BasicIntersectionSolver implements IntersectionSolver {
 	 */
 	@Override
 	public Point findMark(BufferedImage img, int y) {
-		Color c;
-		double val;
-
-		double maxVal = 0;
-		Point maxPoint = null;
-		for (int x = 0; x < img.getWidth(); x++) {
-			c = new Color(img.getRGB(x, y));
-			val = function.apply(c);
-			if (val > maxVal) {
-				maxVal = val;
-				maxPoint = new Point(x, y);
+		int w = img.getWidth();
+		if (row.length < w) {
+			row = new int[w];
+		}
+		img.getRGB(0, y, w, 1, row, 0, w);
+		int maxX = findRowMax(row, 0, w);
+		return result(maxX, y, maxX < 0 ? 0 : markValue(row[maxX]));
+	}
+
+	/**
+	 * Looks up the row maximum, computing it from one row of the color of the
+	 * frame if it's not known yet. Without a color frame, the image is read.
+	 */
+	@Override
+	public Point findMark(MomentData d, int y) {
+		Frame frame = d.frame;
+		if (frame == null || !frame.hasColor())
+			return findMark(d.image, y);
+
+		d.ensureMarkRows(frame.getHeight());
+		if (!d.markRowKnown[y]) {
+			int w = frame.getWidth();
+			if (row.length < w) {
+				row = new int[w];
 			}
+			frame.getColorRow(y, row);
+			int maxX = findRowMax(row, 0, w);
+			d.markRowX[y] = maxX;
+			d.markRowValue[y] = maxX < 0 ? 0 : markValue(row[maxX]);
+			d.markRowKnown[y] = true;
 		}
-		if (maxVal >= Config.get().getDouble("params/intersections/minMaxValue")) {
-			return maxPoint;
+		return result(d.markRowX[y], y, d.markRowValue[y]);
+	}
+
+	private Point result(int x, int y, double maxVal) {
+		if (x >= 0 && maxVal >= Config.intersectionMinMaxValue) {
+			return new Point(x, y);
 		} else {
 			return null;
 		}
@@ -17,6 +17,11 @@ public class BasicLineFinderModule implements LineFinderModule {
 	BorderFinderModule mBorderFinder;
 	AngularTurnHandlerModule mAngularTurnHandler;
 
+	/**
+	 * Scratch point for expected positions, reused between calls
+	 */
+	private final Point expectedScratch = new Point();
+
 	public BasicLineFinderModule(double findingAngle, BorderFinderModule mBorderFinder,
 			AngularTurnHandlerModule mAngularTurnHandler) {
 		this.findingAngle = findingAngle;
@@ -36,7 +41,7 @@ public class BasicLineFinderModule implements LineFinderModule {
 		Pair<Point, Point> borders = null;
 
 		if (d.notFoundCount == 0) {
-			Point expected = d.move(d.position, direction, r);
+			Point expected = d.move(d.position, direction, r, expectedScratch);
 
 			// detect angular turn
 			Situation s = mAngularTurnHandler.detectAndProceed(d, expected, direction);
@@ -58,7 +63,7 @@ public class BasicLineFinderModule implements LineFinderModule {
 
 			for (int i = 0; i < 2 * expectedCount + 1; i++) {
 				double angle = (i % 2 == 1 ? 1 : -1) * expectedAngle * ((i + 1) / 2);
-				Point expected = d.move(d.position, direction + angle, r);
+				Point expected = d.move(d.position, direction + angle, r, expectedScratch);
 
 				borders = mBorderFinder.findBorders(d, expected, direction + angle);
 
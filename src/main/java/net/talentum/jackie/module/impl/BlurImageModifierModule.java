@@ -6,11 +6,14 @@ import java.awt.image.BufferedImageOp;
 import java.awt.image.ConvolveOp;
 import java.awt.image.Kernel;
 
+import net.talentum.jackie.image.Frame;
 import net.talentum.jackie.image.output.ImageOutput;
 import net.talentum.jackie.module.ImageModifierModule;
 
 public class BlurImageModifierModule extends ImageOutput implements ImageModifierModule {
 
+	private final Frame ownFrame = new Frame();
+
 	public BlurImageModifierModule(String name) {
 		super(name);
 	}
@@ -43,6 +46,48 @@ public class BlurImageModifierModule extends ImageOutput implements ImageModifie
 		
 	}
 
+	/**
+	 * Integer version of {@link #matrix}, the weights sum up to 121.
+	 */
+	private static final int[] weights = new int[] { 1, 2, 3, 2, 1, 2, 7, 11, 7, 2, 3, 11, 17, 11, 3, 2, 7, 11, 7, 2, 1,
+			2, 3, 2, 1 };
+
+	/**
+	 * Blurs only the luminance plane. The result has the same size and
+	 * position as the result of {@link #modify(BufferedImage)}. Color of the
+	 * result is the unblurred color of the same region, so that the color marks
+	 * can still be found. The returned frame is reused by the next call.
+	 */
+	@Override
+	public synchronized Frame modify(Frame frame) {
+		int w = frame.getWidth();
+		int h = frame.getHeight();
+		int dw = w - 10;
+		int dh = h - 10;
+		byte[] src = frame.getLuminance();
+
+		Frame result = ownFrame;
+		byte[] dst = result.prepare(dw, dh);
+		// the result is cropped by 5 pixels on each side
+		for (int y = 0; y < dh; y++) {
+			for (int x = 0; x < dw; x++) {
+				int sum = 0;
+				int k = 0;
+				for (int ky = 3; ky <= 7; ky++) {
+					int offset = (y + ky) * w + x + 3;
+					for (int kx = 0; kx < 5; kx++) {
+						sum += weights[k++] * (src[offset + kx] & 0xFF);
+					}
+				}
+				dst[y * dw + x] = (byte) ((sum + 60) / 121);
+			}
+		}
+		if (frame.hasColor()) {
+			result.setColorSource(frame.getImage(), 5, 5);
+		}
+		return result;
+	}
+
 	@Override
 	public BufferedImage process(BufferedImage image) {
 		return modify(image);
@@ -12,8 +12,10 @@ public class BottomLineStartFinderModule implements LineStartFinderModule {
 	@Override
 	public Situation findLineStart(MomentData d) {
 
-		Point p = d.findLinearlyNearestPoint(new Point(d.image.getWidth() / 2, d.image.getHeight() - 1), 0, true,
-				Config.movedst, d.image.getWidth() / 2);
+		Point base = new Point(d.image.getWidth() / 2, d.image.getHeight() - 1);
+		Point p = d.findHorizontallyNearestTrailPoint(base, d.image.getWidth() / 2);
+		if (p == null)
+			p = d.findLinearlyNearestPoint(base, 0, true, Config.movedst, d.image.getWidth() / 2);
 		if (p == null)
 			return null;
 
@@ -0,0 +1,117 @@
+package net.talentum.jackie.module.impl;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.talentum.jackie.module.TrailTrackerModule;
+import net.talentum.jackie.robot.MomentData;
+
+/**
+ * Tracker that predicts the trail on a scanline from its position in the
+ * previous images. The predicted centre is the last centre shifted by the last
+ * observed movement; the trail is then searched only in a narrow window around
+ * the predicted centre.
+ * 
+ * @author JJurM
+ */
+public class PreviousFrameTrailTrackerModule implements TrailTrackerModule {
+
+	int margin;
+	double maxWidthChange;
+
+	// last known borders for each scanline
+	int[] left = new int[0];
+	int[] right = new int[0];
+	int[] velocity = new int[0];
+	boolean[] valid = new boolean[0];
+
+	AtomicLong hits = new AtomicLong();
+	AtomicLong total = new AtomicLong();
+
+	/**
+	 * @param margin
+	 *            maximum distance from the predicted centre, where the trail is
+	 *            searched for
+	 * @param maxWidthChange
+	 *            maximum relative change of the trail width between two images,
+	 *            for the prediction to be confirmed
+	 */
+	public PreviousFrameTrailTrackerModule(int margin, double maxWidthChange) {
+		this.margin = margin;
+		this.maxWidthChange = maxWidthChange;
+	}
+
+	@Override
+	public Point predict(MomentData d, int y) {
+		if (y < 0 || y >= valid.length || !valid[y])
+			return null;
+
+		int center = (left[y] + right[y]) / 2 + velocity[y];
+		Point p = new Point(center, y);
+		if (!d.inBounds(p))
+			return null;
+		if (d.isTrailPoint(p))
+			return p;
+
+		return d.findLinearlyNearestPoint(p, 0, true, 1, margin);
+	}
+
+	@Override
+	public boolean confirm(int y, Point l, Point r) {
+		if (y < 0 || y >= valid.length || !valid[y])
+			return false;
+
+		int lastWidth = right[y] - left[y];
+		int width = Math.abs(r.x - l.x);
+		if (Math.abs(width - lastWidth) > Math.max(lastWidth * maxWidthChange, 2))
+			return false;
+
+		hits.incrementAndGet();
+		return true;
+	}
+
+	@Override
+	public void update(int y, Point l, Point r) {
+		if (y < 0)
+			return;
+		if (y >= valid.length) {
+			int length = y + 1;
+			left = Arrays.copyOf(left, length);
+			right = Arrays.copyOf(right, length);
+			velocity = Arrays.copyOf(velocity, length);
+			valid = Arrays.copyOf(valid, length);
+		}
+		total.incrementAndGet();
+
+		if (l == null || r == null) {
+			valid[y] = false;
+			velocity[y] = 0;
+			return;
+		}
+
+		int lx = Math.min(l.x, r.x), rx = Math.max(l.x, r.x);
+		if (valid[y]) {
+			int shift = (lx + rx) / 2 - (left[y] + right[y]) / 2;
+			velocity[y] = Math.max(Math.min(shift, margin), -margin);
+		} else {
+			velocity[y] = 0;
+		}
+		left[y] = lx;
+		right[y] = rx;
+		valid[y] = true;
+	}
+
+	@Override
+	public double getHitRate() {
+		long t = total.get();
+		return t == 0 ? 0 : (double) hits.get() / t;
+	}
+
+	@Override
+	public void resetStatistics() {
+		hits.set(0);
+		total.set(0);
+	}
+
+}
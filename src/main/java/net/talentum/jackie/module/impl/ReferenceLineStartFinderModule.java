@@ -1,13 +1,14 @@
 package net.talentum.jackie.module.impl;
 
 import java.awt.Point;
-import java.util.List;
 
 import net.talentum.jackie.module.LineStartFinderModule;
+import net.talentum.jackie.robot.InstructionSummary;
 import net.talentum.jackie.robot.MomentData;
-import net.talentum.jackie.robot.RobotInstruction;
 import net.talentum.jackie.robot.RobotInstructionRegister;
 import net.talentum.jackie.robot.Situation;
+import net.talentum.jackie.tools.DoubleList;
+import net.talentum.jackie.tools.PointList;
 
 /**
  * Uses computed data from previous {@code Moment}s.
@@ -31,16 +32,18 @@ public class ReferenceLineStartFinderModule implements LineStartFinderModule {
 
 	@Override
 	public Situation findLineStart(MomentData d) {
-		RobotInstruction prev = register.getLastInstruction();
+		InstructionSummary prev = register.getLast();
 
 		if (prev != null) {
-			List<Point> line = prev.momentData.line;
-			List<Double> directionList = prev.momentData.directionList;
+			PointList line = prev.line;
+			DoubleList directionList = prev.directionList;
+			Point base = new Point();
 
 			for (int i = 0; i < line.size() && i < directionList.size(); i += 5) {
 				double direction = directionList.get(i) + Math.PI / 2;
-				Point l = d.findBorder(line.get(i), direction, 1, -1);
-				Point r = d.findBorder(line.get(i), direction, 1, 1);
+				line.get(i, base);
+				Point l = d.findBorder(base, direction, 1, -1);
+				Point r = d.findBorder(base, direction, 1, 1);
 
 				if (d.dst(l, r) < 100) {
 					Point p = d.avg(l, r);
@@ -5,33 +5,44 @@ import java.awt.image.BufferedImage;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import net.talentum.jackie.image.Frame;
 import net.talentum.jackie.module.BooleanImageFilterModule;
+import net.talentum.jackie.robot.MomentData;
 
+/**
+ * Filters the image by comparing luminance against a threshold, or by an
+ * arbitrary function of color.
+ *
+ * <p>
+ * Works on the luminance plane of a {@link Frame}; images are converted into
+ * a reused frame first. Color is read from the frame only by a color
+ * function; the intersection solver reads the color of the rows it needs
+ * itself. With a luminance threshold, the luminance is also stored into the
+ * {@link MomentData#pyramid}. The run-length encoding of the result is built
+ * into {@link MomentData#runs}.
+ * </p>
+ *
+ * @author JJurM
+ */
 public class UnivBooleanImageFilterModule implements BooleanImageFilterModule {
 
 	protected Function<Color, Boolean> function;
 	protected Supplier<Integer> tresholdSupplier = null;
 	protected int suppliedTreshold;
 
+	/**
+	 * Fixed threshold used if {@link #function} is {@code null}.
+	 */
+	protected int treshold;
+
+	private final Frame ownFrame = new Frame();
+
 	public UnivBooleanImageFilterModule(final int treshold) {
-		this.function = new Function<Color, Boolean>() {
-			@Override
-			public Boolean apply(Color c) {
-				return ((int) (c.getRed() * 0.299) + (int) (c.getGreen() * 0.587)
-						+ (int) (c.getBlue() * 0.114)) > treshold;
-			}
-		};
+		this.treshold = treshold;
 	}
 
 	public UnivBooleanImageFilterModule(Supplier<Integer> tresholdSupplier) {
 		this.tresholdSupplier = tresholdSupplier;
-		this.function = new Function<Color, Boolean>() {
-			@Override
-			public Boolean apply(Color c) {
-				return ((int) (c.getRed() * 0.299) + (int) (c.getGreen() * 0.587)
-						+ (int) (c.getBlue() * 0.114)) > suppliedTreshold;
-			}
-		};
 	}
 
 	public UnivBooleanImageFilterModule(Function<Color, Boolean> function) {
@@ -40,16 +51,62 @@ public class UnivBooleanImageFilterModule implements BooleanImageFilterModule {
 
 	@Override
 	public boolean[][] filter(BufferedImage img) {
-		boolean[][] bool = new boolean[img.getWidth()][img.getHeight()];
+		return filter(img, null);
+	}
+
+	@Override
+	public synchronized boolean[][] filter(BufferedImage img, MomentData d) {
+		return filter(ownFrame.set(img), d);
+	}
+
+	@Override
+	public synchronized boolean[][] filter(Frame frame, MomentData d) {
+		int width = frame.getWidth();
+		int height = frame.getHeight();
+		boolean[][] bool = new boolean[width][height];
 
 		if (tresholdSupplier != null) {
 			suppliedTreshold = tresholdSupplier.get();
 		}
+		int t = tresholdSupplier != null ? suppliedTreshold : treshold;
+
+		byte[] luminance = frame.getLuminance();
+		// colors are needed only by the function
+		int[] color = function != null ? frame.getColor() : null;
+
+		if (d != null) {
+			d.runs.start(width, height);
+			if (function == null) {
+				System.arraycopy(luminance, 0, d.pyramid.prepare(width, height), 0, width * height);
+			}
+		}
+
+		for (int i = 0; i < height; i++) {
+			int offset = i * width;
+
+			for (int j = 0; j < width; j++) {
+				if (function == null) {
+					bool[j][i] = !((luminance[offset + j] & 0xFF) > t);
+				} else if (color != null) {
+					bool[j][i] = !function.apply(new Color(color[offset + j]));
+				} else {
+					int lum = luminance[offset + j] & 0xFF;
+					bool[j][i] = !function.apply(new Color(lum, lum, lum));
+				}
+
+				if (d != null) {
+					d.runs.point(j, bool[j][i]);
+				}
+			}
+
+			if (d != null) {
+				d.runs.endRow(i);
+			}
+		}
 
-		for (int i = 0; i < img.getHeight(); i++) {
-			for (int j = 0; j < img.getWidth(); j++) {
-				Color c = new Color(img.getRGB(j, i));
-				bool[j][i] = !function.apply(c);
+		if (d != null) {
+			if (function == null) {
+				d.pyramid.build(t);
 			}
 		}
 
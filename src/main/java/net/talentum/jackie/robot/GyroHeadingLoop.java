@@ -0,0 +1,268 @@
+package net.talentum.jackie.robot;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+
+import net.talentum.jackie.comm.MPU6050;
+import net.talentum.jackie.module.MotorIntensityFunction;
+import net.talentum.jackie.system.ConfigurationManager;
+import net.talentum.jackie.tools.TimedPIDController;
+
+/**
+ * Inner loop of the cascaded heading control. Integrates the Z-axis rotation
+ * measured by the {@link MPU6050} into a heading and steers the propulsion
+ * motors to hold the heading setpoint, at a rate independent of the camera
+ * ({@code params/lineFollowing/gyro/rate}). The outer loop, processing the
+ * frames, only moves the setpoint.
+ *
+ * <p>
+ * Heading is in radians, positive to the right, i.e. the direction in which a
+ * positive input of the {@link MotorIntensityFunction} turns the robot. The
+ * sensitivity {@code params/lineFollowing/gyro/sensitivity} is negative when
+ * the sensor is mounted upside down. Bias of the gyroscope is measured on
+ * {@link #start()}, while the robot is standing still.
+ * </p>
+ *
+ * <p>
+ * The loop runs on its own thread started by {@link #start()}; in a
+ * simulation, {@link #update(long)} can be called directly instead. Anything
+ * else writing the propulsion motors while the loop runs must
+ * {@link #suspend()} it first, otherwise the loop overwrites the motors on its
+ * next update.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class GyroHeadingLoop implements Runnable {
+
+	private final Robot robot;
+	private final MotorIntensityFunction mif;
+	private final TimedPIDController pid;
+
+	private AtomicBoolean running = new AtomicBoolean(false);
+	private Thread thread;
+
+	/**
+	 * Raw value per radian per second
+	 */
+	private double sensitivity;
+	private long period;
+	private int calibrationSamples;
+
+	// state, owned by the updating thread
+	private double bias = 0;
+	private long lastTime;
+	private boolean started = false;
+
+	private volatile double heading = 0;
+	private volatile double setpoint = 0;
+
+	/**
+	 * Whether the motors are left to someone else, guarded by {@code this}
+	 */
+	private boolean suspended = false;
+
+	// statistics
+	private volatile long updates = 0;
+	private volatile long failures = 0;
+
+	public GyroHeadingLoop(Robot robot, MotorIntensityFunction mif) {
+		this.robot = robot;
+		this.mif = mif;
+
+		HierarchicalConfiguration config = ConfigurationManager.getGeneralConfiguration();
+		pid = new TimedPIDController(readGains(config), -Math.PI / 2, Math.PI / 2);
+		readParams(config);
+		robot.addConfigChangedListener(() -> {
+			pid.setGains(readGains(config));
+			readParams(config);
+		});
+	}
+
+	private static TimedPIDController.Gains readGains(HierarchicalConfiguration config) {
+		// @formatter:off
+		return new TimedPIDController.Gains(
+				config.getDouble("params/lineFollowing/gyro/pid/P"),
+				config.getDouble("params/lineFollowing/gyro/pid/I"),
+				config.getDouble("params/lineFollowing/gyro/pid/D"),
+				config.getDouble("params/lineFollowing/gyro/pid/period", 2.5) / 1000,
+				config.getDouble("params/lineFollowing/gyro/pid/derivativeFilter", 0) / 1000
+		);
+		// @formatter:on
+	}
+
+	private void readParams(HierarchicalConfiguration config) {
+		sensitivity = Math.toDegrees(
+				config.getDouble("params/lineFollowing/gyro/sensitivity", MPU6050.GYRO_SENSITIVITY));
+		period = Math.round(1e9 / config.getDouble("params/lineFollowing/gyro/rate", 400));
+		calibrationSamples = config.getInt("params/lineFollowing/gyro/calibrationSamples", 200);
+	}
+
+	/**
+	 * Measures the bias and starts the loop thread.
+	 */
+	public void start() {
+		if (!running.compareAndSet(false, true))
+			return;
+		calibrate();
+		reset();
+		thread = new Thread(this, "GyroHeadingLoop");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stops the loop thread and waits for it.
+	 */
+	public void stop() {
+		if (!running.compareAndSet(true, false))
+			return;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Averages the gyroscope readings while the robot stands still.
+	 */
+	private void calibrate() {
+		long sum = 0;
+		int count = 0;
+		for (int i = 0; i < calibrationSamples; i++) {
+			int raw = robot.commander.getGyroZ();
+			if (raw != Integer.MIN_VALUE) {
+				sum += raw;
+				count++;
+			}
+			LockSupport.parkNanos(period);
+		}
+		bias = count > 0 ? (double) sum / count : 0;
+		System.out.println(String.format("GyroHeadingLoop: bias %.1f from %d samples", bias, count));
+	}
+
+	/**
+	 * Sets the heading and the setpoint to zero and restarts the controller.
+	 * Must be called from the updating thread, or before it's started.
+	 */
+	public synchronized void reset() {
+		heading = 0;
+		setpoint = 0;
+		started = false;
+		suspended = false;
+		pid.reset();
+	}
+
+	/**
+	 * Stops writing the motors, so that they can be driven directly, e.g.
+	 * during an open-loop manoeuvre. The heading is still integrated. When
+	 * this returns, no update writing the motors is in progress.
+	 */
+	public synchronized void suspend() {
+		suspended = true;
+	}
+
+	/**
+	 * Resumes writing the motors after {@link #suspend()}, holding the heading
+	 * reached in the meantime.
+	 */
+	public synchronized void resume() {
+		if (!suspended)
+			return;
+		suspended = false;
+		setpoint = heading;
+		pid.reset();
+	}
+
+	public synchronized boolean isSuspended() {
+		return suspended;
+	}
+
+	@Override
+	public void run() {
+		long next = System.nanoTime();
+		while (running.get()) {
+			update(robot.nanoTime());
+
+			// fixed rate, skip the missed periods
+			next += period;
+			long now = System.nanoTime();
+			if (next - now < 0) {
+				next = now;
+			} else {
+				LockSupport.parkNanos(next - now);
+			}
+		}
+	}
+
+	/**
+	 * One step of the loop: reads the gyroscope, integrates the heading and,
+	 * unless suspended, writes the motors.
+	 *
+	 * @param time
+	 *            current time, in the clock of the {@link Robot}
+	 */
+	public synchronized void update(long time) {
+		int raw = robot.commander.getGyroZ();
+		if (raw == Integer.MIN_VALUE) {
+			// keep the previous output, integrate the next reading over the gap
+			failures++;
+			return;
+		}
+
+		if (started) {
+			// the gyroscope measures counterclockwise rotation
+			heading -= (raw - bias) / sensitivity * (time - lastTime) / 1e9;
+		}
+		started = true;
+		lastTime = time;
+		if (suspended)
+			return;
+
+		double steering = pid.update(setpoint - heading, time);
+		ImmutablePair<Integer, Integer> motors = mif.getMotors(steering);
+		robot.actuators.writePropulsionMotors(motors.left, motors.right);
+		updates++;
+	}
+
+	/**
+	 * @return integrated heading in radians, positive to the right
+	 */
+	public double getHeading() {
+		return heading;
+	}
+
+	/**
+	 * Sets the heading to hold, relative to the same zero as
+	 * {@link #getHeading()}.
+	 *
+	 * @param setpoint
+	 *            in radians
+	 */
+	public void setSetpoint(double setpoint) {
+		this.setpoint = setpoint;
+	}
+
+	public double getSetpoint() {
+		return setpoint;
+	}
+
+	public long getUpdateCount() {
+		return updates;
+	}
+
+	/**
+	 * @return number of updates skipped because the gyroscope couldn't be
+	 *         read
+	 */
+	public long getFailureCount() {
+		return failures;
+	}
+
+}
@@ -0,0 +1,74 @@
+package net.talentum.jackie.robot;
+
+import java.awt.Point;
+
+import net.talentum.jackie.tools.DoubleList;
+import net.talentum.jackie.tools.PointList;
+
+/**
+ * Compact copy of the results of one {@link RobotInstruction}, as held by
+ * {@link RobotInstructionRegister}. Contains the recognized line polyline with
+ * its directions, trail borders, heading and the time of capture, but not the
+ * image or the whole {@link MomentData}.
+ *
+ * <p>
+ * Instances are owned by the register and are overwritten once they fall out
+ * of its history.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class InstructionSummary {
+
+	public final PointList line = new PointList();
+	public final DoubleList directionList = new DoubleList();
+	public final PointList bordersL = new PointList();
+	public final PointList bordersR = new PointList();
+
+	/**
+	 * Whether the instruction had a valid destination, i.e. not {@code null}
+	 * nor {@code (0, 0)}. If not, {@link #destination} content is undefined
+	 * and {@link #heading} is {@code NaN}.
+	 */
+	public boolean hasDestination;
+	public final Point destination = new Point();
+
+	/**
+	 * Horizontal offset of the destination relative to the image width, the
+	 * same value that drives the propulsion motors, or {@code NaN} if the
+	 * instruction has no destination.
+	 */
+	public double heading;
+
+	/**
+	 * Time the image was captured, in the clock of the {@link Robot}, or
+	 * {@link SensorData#UNKNOWN}
+	 */
+	public long captureTime;
+
+	/**
+	 * Overwrites this summary with data of the given instruction. Buffers are
+	 * reused.
+	 *
+	 * @param robotInstruction
+	 */
+	void set(RobotInstruction robotInstruction) {
+		MomentData d = robotInstruction.momentData;
+		line.copyFrom(d.line);
+		directionList.copyFrom(d.directionList);
+		bordersL.copyFrom(d.bordersL);
+		bordersR.copyFrom(d.bordersR);
+
+		Point dest = robotInstruction.destination;
+		hasDestination = dest != null && (dest.x != 0 || dest.y != 0);
+		if (hasDestination) {
+			destination.setLocation(dest);
+			heading = ((double) dest.x) / robotInstruction.image.getWidth();
+		} else {
+			heading = Double.NaN;
+		}
+
+		captureTime = d.sensorData.captureTime;
+	}
+
+}
@@ -2,13 +2,18 @@ package net.talentum.jackie.robot;
 
 import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+import net.talentum.jackie.image.Frame;
+import net.talentum.jackie.image.LuminancePyramid;
+import net.talentum.jackie.image.TrailComponents;
+import net.talentum.jackie.image.TrailRuns;
 import net.talentum.jackie.module.DirectionManagerModule;
 import net.talentum.jackie.module.TrailBordersMonitorModule;
 import net.talentum.jackie.system.Config;
-import net.talentum.jackie.tools.Interval;
+import net.talentum.jackie.tools.DoubleList;
+import net.talentum.jackie.tools.PointList;
+import net.talentum.jackie.tools.RayWalker;
 
 /**
  * This object is bonded to {@link Moment}. Contains data, some may be only
@@ -16,32 +21,151 @@ import net.talentum.jackie.tools.Interval;
  * variables in a different way. MomentData is created by strategies, just
  * before the moment processing.
  * 
+ * <p>
+ * Recorded points are kept in primitive {@link PointList}s. A MomentData that
+ * is no longer referenced can be recycled with {@link #reset(BufferedImage)},
+ * which keeps all the allocated buffers.
+ * </p>
+ * 
  * @author JJurM
  */
 public class MomentData {
 
 	public BufferedImage image;
-	public SensorData sensorData;
+	public final SensorData sensorData = SensorData.collect();
+
+	/**
+	 * Frame processed by the vision modules, set by the strategy. When an
+	 * image modifier is used, {@link #image} is the image of this frame.
+	 */
+	public Frame frame;
+	private final Frame imageFrame = new Frame();
 
 	public boolean[][] bw;
 
-	public List<Point> line = new ArrayList<Point>();
-	public List<Point> bordersL = new ArrayList<Point>();
-	public List<Point> bordersR = new ArrayList<Point>();
-	public List<Double> directionList = new ArrayList<Double>();
-	public List<Point> notFound = new ArrayList<Point>();
-	public List<Point> highlight = new ArrayList<Point>();
+	/**
+	 * Luminance of the image at lower resolutions, valid only if the filter
+	 * that created {@link #bw} filled it.
+	 */
+	public final LuminancePyramid pyramid = new LuminancePyramid();
+
+	/**
+	 * Run-length encoding of {@link #bw}, valid only if the filter that
+	 * created {@link #bw} built it. Used for searching along rows.
+	 */
+	public final TrailRuns runs = new TrailRuns();
+
+	public final PointList line = new PointList();
+	public final PointList bordersL = new PointList();
+	public final PointList bordersR = new PointList();
+	public final DoubleList directionList = new DoubleList();
+	public final PointList notFound = new PointList();
+	public final PointList highlight = new PointList();
 
 	public Point position;
 	public int notFoundCount = 0;
 
+	/**
+	 * Per-row maxima of the intersection mark (green) value, filled by the
+	 * intersection solver for the rows it looks at, so that the color of
+	 * other rows is never derived. {@code markRowX[y]} is the column where the
+	 * maximum {@code markRowValue[y]} was reached. Valid only where
+	 * {@code markRowKnown[y]} is set.
+	 */
+	public int[] markRowX = new int[0];
+	public double[] markRowValue = new double[0];
+	public boolean[] markRowKnown = new boolean[0];
+
 	public DirectionManagerModule mDirectionManager;
 	public TrailBordersMonitorModule mTrailBordersMonitor;
 
+	/**
+	 * Ray walkers used by the searching methods. The second one is needed for
+	 * searching in both directions at once.
+	 */
+	private final RayWalker walkerA = new RayWalker();
+	private final RayWalker walkerB = new RayWalker();
+	private boolean[][] walkerMask;
+
+	private final TrailComponents components = new TrailComponents();
+	private boolean[][] componentsMask;
+
 	public MomentData(BufferedImage image) {
 		this.image = image;
 	}
 
+	/**
+	 * Prepares this object for processing of another image. All per-image
+	 * data are cleared, the allocated buffers are kept.
+	 * 
+	 * @param image
+	 *            the new image
+	 * @return this object
+	 */
+	public MomentData reset(BufferedImage image) {
+		this.image = image;
+		sensorData.clear();
+		frame = null;
+		bw = null;
+		pyramid.invalidate();
+		runs.invalidate();
+		line.clear();
+		bordersL.clear();
+		bordersR.clear();
+		directionList.clear();
+		notFound.clear();
+		highlight.clear();
+		position = null;
+		notFoundCount = 0;
+		Arrays.fill(markRowKnown, false);
+		mDirectionManager = null;
+		mTrailBordersMonitor = null;
+		return this;
+	}
+
+	/**
+	 * Converts {@link #image} into a frame, reusing the buffers of the
+	 * previous conversion.
+	 * 
+	 * @return the frame
+	 */
+	public Frame imageFrame() {
+		return imageFrame.set(image);
+	}
+
+	/**
+	 * Makes sure the mark row arrays can hold the given number of rows. The
+	 * arrays are reused, if they are large enough.
+	 * 
+	 * @param height
+	 */
+	public void ensureMarkRows(int height) {
+		if (markRowX.length < height) {
+			markRowX = new int[height];
+			markRowValue = new double[height];
+			markRowKnown = new boolean[height];
+		}
+	}
+
+	/**
+	 * Returns connected components of the current {@link #bw} array. The
+	 * components are computed on the first call after {@link #bw} has changed,
+	 * from {@link #runs} if they are valid.
+	 * 
+	 * @return
+	 */
+	public TrailComponents getComponents() {
+		if (componentsMask != bw) {
+			if (runs.isValid()) {
+				components.label(runs);
+			} else {
+				components.label(bw, image.getWidth(), image.getHeight());
+			}
+			componentsMask = bw;
+		}
+		return components;
+	}
+
 	// ===== helper functions =====
 
 	/**
@@ -65,6 +189,17 @@ public class MomentData {
 		return bw[p.x][p.y];
 	}
 
+	/**
+	 * Makes sure the ray walkers walk across the current {@link #bw} array.
+	 */
+	private void syncWalkers() {
+		if (walkerMask != bw) {
+			walkerMask = bw;
+			walkerA.setMask(bw, image.getWidth(), image.getHeight());
+			walkerB.setMask(bw, image.getWidth(), image.getHeight());
+		}
+	}
+
 	/**
 	 * Calculates distance between the two points.
 	 * 
@@ -89,8 +224,25 @@ public class MomentData {
 	 * @return the new point
 	 */
 	public Point move(Point base, double angle, double distance) {
-		return new Point((int) Math.round(base.x + Math.cos(angle) * distance),
+		return move(base, angle, distance, new Point());
+	}
+
+	/**
+	 * Allocation-free variant of {@link #move(Point, double, double)}, which
+	 * writes the result into {@code dest}. {@code dest} may be the same object
+	 * as {@code base}.
+	 * 
+	 * @param base
+	 * @param angle
+	 * @param distance
+	 * @param dest
+	 *            where to write the result
+	 * @return {@code dest}
+	 */
+	public Point move(Point base, double angle, double distance, Point dest) {
+		dest.setLocation((int) Math.round(base.x + Math.cos(angle) * distance),
 				(int) Math.round(base.y + Math.sin(angle) * distance));
+		return dest;
 	}
 
 	/**
@@ -105,9 +257,26 @@ public class MomentData {
 	 * @return the new point
 	 */
 	public Point rotate(Point p, Point center, double angle) {
-		return new Point(
-				(int) Math.round(center.x + (p.x - center.x) * Math.cos(angle) - (p.y - center.y) * Math.sin(angle)),
-				(int) Math.round(center.y + (p.x - center.x) * Math.sin(angle) + (p.y - center.y) * Math.cos(angle)));
+		return rotate(p, center, angle, new Point());
+	}
+
+	/**
+	 * Allocation-free variant of {@link #rotate(Point, Point, double)}, which
+	 * writes the result into {@code dest}.
+	 * 
+	 * @param p
+	 * @param center
+	 * @param angle
+	 * @param dest
+	 *            where to write the result
+	 * @return {@code dest}
+	 */
+	public Point rotate(Point p, Point center, double angle, Point dest) {
+		double cos = Math.cos(angle), sin = Math.sin(angle);
+		int dx = p.x - center.x, dy = p.y - center.y;
+		dest.setLocation((int) Math.round(center.x + dx * cos - dy * sin),
+				(int) Math.round(center.y + dx * sin + dy * cos));
+		return dest;
 	}
 
 	/**
@@ -127,13 +296,43 @@ public class MomentData {
 		return new Point(sx / points.length, sy / points.length);
 	}
 
+	/**
+	 * Allocation-free average of two points, written into {@code dest}.
+	 * 
+	 * @param a
+	 * @param b
+	 * @param dest
+	 *            where to write the result
+	 * @return {@code dest}
+	 */
+	public Point avg(Point a, Point b, Point dest) {
+		dest.setLocation((a.x + b.x) / 2, (a.y + b.y) / 2);
+		return dest;
+	}
+
 	public Point weightedAvg(Point a, Point b, double weightA) {
+		return weightedAvg(a, b, weightA, new Point());
+	}
+
+	/**
+	 * Allocation-free variant of {@link #weightedAvg(Point, Point, double)},
+	 * which writes the result into {@code dest}.
+	 * 
+	 * @param a
+	 * @param b
+	 * @param weightA
+	 * @param dest
+	 *            where to write the result
+	 * @return {@code dest}
+	 */
+	public Point weightedAvg(Point a, Point b, double weightA, Point dest) {
 		int sx = 0, sy = 0;
 		sx += a.x * weightA;
 		sy += a.y * weightA;
 		sx += b.x * (1 - weightA);
 		sy += b.y * (1 - weightA);
-		return new Point(sx, sy);
+		dest.setLocation(sx, sy);
+		return dest;
 	}
 
 	/**
@@ -146,6 +345,25 @@ public class MomentData {
 		return angle + Math.PI / 2;
 	}
 
+	/**
+	 * Finds trail point on the horizontal line going through {@code base}, that
+	 * is the nearest to {@code base}, using the {@link #pyramid}. The row is
+	 * searched on the coarsest level and the position is refined on the finer
+	 * levels.
+	 * 
+	 * @param base
+	 * @param maxdst
+	 *            maximum distance to search for
+	 * @return the point, or {@code null} if the pyramid is not valid or no
+	 *         trail was found on it
+	 */
+	public Point findHorizontallyNearestTrailPoint(Point base, int maxdst) {
+		int x = pyramid.findNearestTrailX(base.x, base.y, maxdst);
+		if (x < 0 || !bw[x][base.y])
+			return null;
+		return new Point(x, base.y);
+	}
+
 	/**
 	 * Finds point, on a straight line, that is specified by being or not being
 	 * a trail point and is the nearest such point to the specified {@code base}
@@ -165,22 +383,29 @@ public class MomentData {
 	 *            maximum distance to search for; {@code null} is returned if no
 	 *            such point is found in the specified distance
 	 * @return
+	 * @see RayWalker
 	 */
 	public Point findLinearlyNearestPoint(Point base, double angle, boolean findTrail, int dst, int maxdst) {
 		// returns Point or null
+		syncWalkers();
+		RayWalker forward = walkerA;
+		RayWalker backward = walkerB;
+		forward.start(base.x, base.y, angle, dst);
+		backward.start(base.x, base.y, angle, -dst);
+
 		boolean wasInBounds = true;
-		Point p = base;
-		for (int i = 1; wasInBounds && dst(base, p) <= maxdst; i++) {
+		for (int i = 1; wasInBounds && (long) (i - 1) * dst <= maxdst; i++) {
 			wasInBounds = false;
-			for (int j = 1; j >= -1; j -= 2) {
-				p = move(base, angle, dst * i * j);
-				if (inBounds(p)) {
+			for (int j = 0; j < 2; j++) {
+				RayWalker w = (j == 0) ? forward : backward;
+				w.advance();
+				if (w.inBounds()) {
 					wasInBounds = true;
-					if (isTrailPoint(p) == findTrail) {
+					if (w.isTrail() == findTrail) {
 						if (findTrail) {
-							return p;
+							return new Point(w.x, w.y);
 						} else {
-							return move(base, angle, dst * Math.max(i - 1, 0) * j);
+							return new Point(w.prevX, w.prevY);
 						}
 					}
 				}
@@ -203,15 +428,27 @@ public class MomentData {
 	 *            either {@code 1} or {@code -1}
 	 * @return last point that was determined as a trail point; {@code base} can
 	 *         also be returned, if no further trail point was found
+	 * @see RayWalker
+	 * @see TrailRuns
 	 */
 	public Point findBorder(Point base, double direction, int dst, int orientation) {
-		Point p = base;
-		Point last = base;
-		for (int i = 1; inBounds(p) && isTrailPoint(p); i++) {
-			last = p;
-			p = move(base, direction, Config.movedst * i * orientation);
+		// along a row, the run containing the base point gives the border
+		if (runs.isValid()) {
+			int a = RayWalker.angleIndex(direction);
+			if (a == 0 || a == RayWalker.ANGLE_COUNT / 2) {
+				int run = runs.findRun(base.x, base.y);
+				if (run < 0)
+					return new Point(base);
+				boolean right = (a == 0) == (orientation > 0);
+				return new Point(right ? runs.getEnd(run) : runs.getStart(run), base.y);
+			}
 		}
-		return last;
+
+		syncWalkers();
+		RayWalker w = walkerA;
+		w.start(base.x, base.y, direction, Config.movedst * orientation);
+		w.walkWhileTrail();
+		return new Point(w.prevX, w.prevY);
 	}
 
 }
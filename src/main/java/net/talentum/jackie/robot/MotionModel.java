@@ -0,0 +1,215 @@
+package net.talentum.jackie.robot;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+import net.talentum.jackie.comm.MotorHistory;
+import net.talentum.jackie.tools.PointList;
+
+/**
+ * Differential drive model of the robot, used to compensate the latency of
+ * the camera and the image processing. The motion between the capture of an
+ * image and the present is reconstructed from the {@link MotorHistory}, and
+ * the position of the line observed in the image is moved to where the camera
+ * would see it now.
+ *
+ * <p>
+ * The camera is assumed to look down in front of the robot, so that its view
+ * is a trapezoid on the floor ({@code params/camera/view}): the top row is
+ * {@code far} cm in front of the wheel axis and {@code farWidth} cm wide, the
+ * bottom row {@code near} cm and {@code nearWidth} cm. Wheel speed at motor
+ * value {@code 90} is {@code params/motionModel/maxWheelSpeed} cm/s, the
+ * wheels are {@code params/motionModel/wheelBase} cm apart.
+ * </p>
+ *
+ * <p>
+ * The line is approximated by a straight line fitted to the detected line
+ * points on the floor. Moving the line, not only the destination, matters: on
+ * a curve the robot turns along with the line, and the line crosses the
+ * observed row at nearly the same place as before.
+ * </p>
+ *
+ * <p>
+ * The model is used from one thread and allocates nothing.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class MotionModel implements MotorHistory.SegmentConsumer {
+
+	private final MotorHistory history;
+
+	private double maxWheelSpeed;
+	private double wheelBase;
+	private double near, far, nearWidth, farWidth;
+
+	// displacement integrated by segment(), in the frame of the start pose:
+	// forward and right in cm, rotation to the right in radians
+	private double forward;
+	private double right;
+	private double rotation;
+
+	public MotionModel(MotorHistory history) {
+		this.history = history;
+	}
+
+	/**
+	 * Reads the parameters from the configuration.
+	 *
+	 * @param config
+	 */
+	public void configure(HierarchicalConfiguration config) {
+		maxWheelSpeed = config.getDouble("params/motionModel/maxWheelSpeed");
+		wheelBase = config.getDouble("params/motionModel/wheelBase");
+		near = config.getDouble("params/camera/view/near");
+		far = config.getDouble("params/camera/view/far");
+		nearWidth = config.getDouble("params/camera/view/nearWidth");
+		farWidth = config.getDouble("params/camera/view/farWidth");
+	}
+
+	/**
+	 * Computes the motion of the robot during the interval from the written
+	 * motor values.
+	 *
+	 * @param from
+	 * @param to
+	 */
+	public void integrate(long from, long to) {
+		forward = 0;
+		right = 0;
+		rotation = 0;
+		if (to > from) {
+			history.replay(from, to, this);
+		}
+	}
+
+	@Override
+	public void segment(long start, long end, int left, int right) {
+		double dt = (end - start) / 1e9;
+		double vl = left / 90.0 * maxWheelSpeed;
+		double vr = right / 90.0 * maxWheelSpeed;
+		double v = (vl + vr) / 2;
+		double omega = (vl - vr) / wheelBase;
+
+		double sin = Math.sin(rotation), cos = Math.cos(rotation);
+		if (Math.abs(omega * dt) < 1e-6) {
+			forward += v * dt * cos;
+			this.right += v * dt * sin;
+		} else {
+			// exact arc
+			double after = rotation + omega * dt;
+			forward += v / omega * (Math.sin(after) - sin);
+			this.right += v / omega * (cos - Math.cos(after));
+		}
+		rotation += omega * dt;
+	}
+
+	/**
+	 * Moves a destination observed in an image by the shift of the line at its
+	 * distance, caused by the motion computed by the last
+	 * {@link #integrate(long, long)}.
+	 *
+	 * @param x
+	 *            column of the destination relative to the center of the image
+	 * @param y
+	 *            row of the destination
+	 * @param line
+	 *            points of the line in the image, at least two rows are needed
+	 * @param width
+	 *            width of the image
+	 * @param height
+	 *            height of the image
+	 * @return column of the destination relative to the center of the image,
+	 *         or {@code x} if the line can't be fitted
+	 */
+	public double project(double x, int y, PointList line, int width, int height) {
+		double cos = Math.cos(rotation), sin = Math.sin(rotation);
+		double center = (width - 1) / 2.0;
+
+		// least squares fits of lateral = c0 + c1 * ahead, before and after
+		// the motion
+		int n = line.size();
+		double sa = 0, sl = 0, saa = 0, sal = 0;
+		double sa2 = 0, sl2 = 0, saa2 = 0, sal2 = 0;
+		for (int i = 0; i < n; i++) {
+			double a = ahead(line.getY(i), height);
+			double l = lateral(line.getX(i) - center, line.getY(i), width, height);
+			sa += a;
+			sl += l;
+			saa += a * a;
+			sal += a * l;
+
+			double ma = a - forward;
+			double ml = l - right;
+			double a2 = ma * cos + ml * sin;
+			double l2 = -ma * sin + ml * cos;
+			sa2 += a2;
+			sl2 += l2;
+			saa2 += a2 * a2;
+			sal2 += a2 * l2;
+		}
+		double det = n * saa - sa * sa;
+		double det2 = n * saa2 - sa2 * sa2;
+		if (n < 2 || det < 1e-6 || det2 < 1e-6)
+			return x;
+
+		double a = ahead(y, height);
+		double before = (sl * saa - sa * sal + (n * sal - sa * sl) * a) / det;
+		double after = (sl2 * saa2 - sa2 * sal2 + (n * sal2 - sa2 * sl2) * a) / det2;
+
+		return x + (after - before) * (width - 1) / (2 * halfWidth(y, height));
+	}
+
+	/**
+	 * @return distance of the row from the wheel axis, in cm
+	 */
+	private double ahead(int y, int height) {
+		return far + (near - far) * row(y, height);
+	}
+
+	/**
+	 * @return half of the width of the view in the row, in cm
+	 */
+	private double halfWidth(int y, int height) {
+		return (farWidth + (nearWidth - farWidth) * row(y, height)) / 2;
+	}
+
+	/**
+	 * @return distance of the point right from the center of the view, in cm
+	 */
+	private double lateral(double x, int y, int width, int height) {
+		return width > 1 ? x * 2 * halfWidth(y, height) / (width - 1) : 0;
+	}
+
+	/**
+	 * @return position of the row, {@code 0} at the top, {@code 1} at the
+	 *         bottom
+	 */
+	private static double row(int y, int height) {
+		return height > 1 ? (double) y / (height - 1) : 0;
+	}
+
+	/**
+	 * @return forward displacement computed by the last
+	 *         {@link #integrate(long, long)}, in cm
+	 */
+	public double getForward() {
+		return forward;
+	}
+
+	/**
+	 * @return displacement to the right computed by the last
+	 *         {@link #integrate(long, long)}, in cm
+	 */
+	public double getRight() {
+		return right;
+	}
+
+	/**
+	 * @return rotation to the right computed by the last
+	 *         {@link #integrate(long, long)}, in radians
+	 */
+	public double getRotation() {
+		return rotation;
+	}
+
+}
@@ -4,8 +4,11 @@ import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 
+import net.talentum.jackie.comm.ActuatorStage;
 import net.talentum.jackie.comm.Commander;
+import net.talentum.jackie.comm.MotorHistory;
 import net.talentum.jackie.image.supplier.ImageSupplier;
 import net.talentum.jackie.robot.state.InterruptedExecution;
 import net.talentum.jackie.robot.state.LineFollowingState;
@@ -34,6 +37,18 @@ public class Robot {
 	 */
 	public final Commander commander;
 
+	/**
+	 * Asynchronous output stage for motors and lights, writes through the
+	 * {@link #commander}
+	 */
+	public final ActuatorStage actuators;
+
+	/**
+	 * Recently written propulsion motor values, with the times of the
+	 * {@link #nanoTime()} clock
+	 */
+	public final MotorHistory motorHistory = new MotorHistory(256);
+
 	/**
 	 * Whether the robot should run
 	 */
@@ -52,6 +67,16 @@ public class Robot {
 
 	private AtomicBoolean toRefresh = new AtomicBoolean(false);
 
+	/**
+	 * Time source of the control loop, in nanoseconds
+	 */
+	private LongSupplier clock = System::nanoTime;
+
+	/**
+	 * Time of capture of the last image
+	 */
+	private volatile long imageTime = 0;
+
 	public LineFollowingState lineFollowingState = new LineFollowingState(this);
 
 	/**
@@ -61,6 +86,8 @@ public class Robot {
 	 */
 	public Robot(Commander commander) {
 		this.commander = commander;
+		this.actuators = new ActuatorStage(commander);
+		actuators.setMotorHistory(motorHistory, this::nanoTime);
 	}
 
 	/**
@@ -79,13 +106,46 @@ public class Robot {
 		this.imageSupplier = imageSupplier;
 	}
 
+	/**
+	 * Replaces the time source of the control loop, which is
+	 * {@link System#nanoTime()} by default. Used when the robot runs in a
+	 * simulation faster than real time.
+	 * 
+	 * @param clock
+	 */
+	public void setClock(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Returns current time of the control loop.
+	 * 
+	 * @return time in nanoseconds
+	 */
+	public long nanoTime() {
+		return clock.getAsLong();
+	}
+
 	/**
 	 * Returns image got from {@link ImageSupplier}.
 	 * 
 	 * @return
 	 */
 	public BufferedImage getImage() {
-		return imageSupplier.getImage();
+		BufferedImage image = imageSupplier.getImage();
+		imageTime = imageSupplier.getTimestamp();
+		return image;
+	}
+
+	/**
+	 * Returns time the image last returned by {@link #getImage()} was captured,
+	 * as reported by the {@link ImageSupplier}. The supplier must use the same
+	 * clock as {@link #nanoTime()}.
+	 * 
+	 * @return time in nanoseconds
+	 */
+	public long getImageTime() {
+		return imageTime;
 	}
 
 	public void start() {
@@ -162,26 +222,27 @@ public class Robot {
 
 	public void begin() {
 		// move camera up
-		commander.writeMotor(Commander.MOTOR_CAMERA, Config.get().getInt("params/motorPositions/camera/up"));
+		actuators.writeMotor(Commander.MOTOR_CAMERA, Config.get().getInt("params/motorPositions/camera/up"));
 		TimeTools.sleep(Config.get().getInt("params/motorDelay"));
 
 		// move arm up
-		commander.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/normal"));
+		actuators.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/normal"));
 		TimeTools.sleep(Config.get().getInt("params/motorDelay"));
 
 		// turn backlight on
-		commander.light(Commander.BACKLIGHT, true);
-		commander.light(Commander.FLASHLIGHT, true);
+		actuators.light(Commander.BACKLIGHT, true);
+		actuators.light(Commander.FLASHLIGHT, true);
 
 		// move camera down
-		commander.writeMotor(Commander.MOTOR_CAMERA, Config.get().getInt("params/motorPositions/camera/down"));
+		actuators.writeMotor(Commander.MOTOR_CAMERA, Config.get().getInt("params/motorPositions/camera/down"));
 		TimeTools.sleep(Config.get().getInt("params/motorDelay"));
 	}
 
 	public void end() {
-		commander.light(0, false);
-		commander.light(1, false);
-		commander.writePropulsionMotors(0);
+		actuators.light(0, false);
+		actuators.light(1, false);
+		actuators.writePropulsionMotors(0);
+		actuators.flush();
 	}
 
 }
@@ -1,31 +1,71 @@
 package net.talentum.jackie.robot;
 
-import java.util.LinkedList;
-
 /**
- * Holds history of {@code RobotInstruction}s.
- * 
+ * Holds history of {@code RobotInstruction}s, as a fixed-capacity ring buffer
+ * of {@link InstructionSummary}s. Pushing an instruction copies its line,
+ * borders and heading into a preallocated summary, so the memory used by the
+ * register stays constant and the instruction's image and {@link MomentData}
+ * are not pinned; the {@link MomentData} can be recycled right after the
+ * push.
+ *
+ * <p>
+ * Summaries are addressed by age, {@code 0} being the most recently pushed
+ * one.
+ * </p>
+ *
  * @author JJurM
  */
 public class RobotInstructionRegister {
 
-	private LinkedList<RobotInstruction> robotInstructionList = new LinkedList<RobotInstruction>();
-	private int maxHistory;
+	private final InstructionSummary[] summaries;
+	private int head = -1;
+	private int size = 0;
 
 	public RobotInstructionRegister(int maxHistory) {
-		this.maxHistory = maxHistory;
+		summaries = new InstructionSummary[Math.max(maxHistory, 1)];
+		for (int i = 0; i < summaries.length; i++) {
+			summaries[i] = new InstructionSummary();
+		}
 	}
 
-	public void push(RobotInstruction robotInstruction) {
-		robotInstructionList.push(robotInstruction);
+	public synchronized void push(RobotInstruction robotInstruction) {
+		head = (head + 1) % summaries.length;
+		summaries[head].set(robotInstruction);
 
-		if (robotInstructionList.size() > maxHistory) {
-			robotInstructionList.removeLast();
+		if (size < summaries.length) {
+			size++;
 		}
 	}
 
-	public RobotInstruction getLastInstruction() {
-		return robotInstructionList.peek();
+	/**
+	 * Returns summary of the given age, or {@code null} if the history is not
+	 * that long.
+	 *
+	 * @param age
+	 *            {@code 0} for the last pushed instruction
+	 * @return
+	 */
+	public synchronized InstructionSummary get(int age) {
+		if (age < 0 || age >= size)
+			return null;
+		return summaries[(head - age + summaries.length) % summaries.length];
+	}
+
+	public InstructionSummary getLast() {
+		return get(0);
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return summaries.length;
+	}
+
+	public synchronized void clear() {
+		head = -1;
+		size = 0;
 	}
 
 }
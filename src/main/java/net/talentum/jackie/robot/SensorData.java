@@ -8,6 +8,16 @@ package net.talentum.jackie.robot;
  */
 public class SensorData {
 
+	/**
+	 * Value of a time that is not known
+	 */
+	public static final long UNKNOWN = Long.MIN_VALUE;
+
+	/**
+	 * Time the image was captured, in the clock of the {@link Robot}
+	 */
+	public long captureTime = UNKNOWN;
+
 	/**
 	 * Hidden constructor
 	 */
@@ -18,4 +28,11 @@ public class SensorData {
 		return new SensorData();
 	}
 
+	/**
+	 * Forgets all values, before the object is reused.
+	 */
+	public void clear() {
+		captureTime = UNKNOWN;
+	}
+
 }
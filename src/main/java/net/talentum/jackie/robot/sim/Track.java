@@ -0,0 +1,277 @@
+package net.talentum.jackie.robot.sim;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import net.talentum.jackie.tools.DoubleList;
+
+/**
+ * Closed black line on a white floor, given by its center line. Coordinates are
+ * in centimeters, {@code y} pointing up.
+ *
+ * <p>
+ * The track is rasterized once into a luminance map, which is sampled when
+ * rendering camera frames. The center line is used for measuring the
+ * cross-track error and the progress along the track.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class Track {
+
+	public static final int LINE_LUMINANCE = 20;
+	public static final int FLOOR_LUMINANCE = 220;
+
+	/**
+	 * Free floor around the track in the map, in centimeters
+	 */
+	private static final double MARGIN = 40;
+
+	private final double[] xs;
+	private final double[] ys;
+
+	/**
+	 * Length of the center line from the first point to the {@code i}-th point
+	 */
+	private final double[] lengths;
+	private final double lineWidth;
+
+	// map
+	private final double resolution;
+	private final double originX;
+	private final double originY;
+	private final int mapWidth;
+	private final int mapHeight;
+	private final byte[] map;
+
+	/**
+	 * Nearest point of the center line.
+	 */
+	public static class Projection {
+
+		/**
+		 * Distance from the center line, positive on the left side
+		 */
+		public double distance;
+
+		/**
+		 * Position along the track, {@code 0..getLength()}
+		 */
+		public double position;
+
+		/**
+		 * Direction of the track at the point, in radians
+		 */
+		public double direction;
+
+		public double x;
+		public double y;
+
+	}
+
+	/**
+	 * @param xs
+	 *            {@code x} coordinates of the center line points
+	 * @param ys
+	 *            {@code y} coordinates of the center line points
+	 * @param lineWidth
+	 *            in centimeters
+	 * @param resolution
+	 *            size of one map cell in centimeters
+	 */
+	public Track(double[] xs, double[] ys, double lineWidth, double resolution) {
+		this.xs = xs;
+		this.ys = ys;
+		this.lineWidth = lineWidth;
+		this.resolution = resolution;
+
+		int n = xs.length;
+		lengths = new double[n + 1];
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			lengths[i + 1] = lengths[i] + Math.hypot(xs[j] - xs[i], ys[j] - ys[i]);
+		}
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		originX = minX - MARGIN;
+		originY = minY - MARGIN;
+		mapWidth = (int) Math.ceil((maxX - minX + 2 * MARGIN) / resolution);
+		mapHeight = (int) Math.ceil((maxY - minY + 2 * MARGIN) / resolution);
+
+		BufferedImage image = new BufferedImage(mapWidth, mapHeight, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setColor(new Color(FLOOR_LUMINANCE, FLOOR_LUMINANCE, FLOOR_LUMINANCE));
+		g.fillRect(0, 0, mapWidth, mapHeight);
+		g.setColor(new Color(LINE_LUMINANCE, LINE_LUMINANCE, LINE_LUMINANCE));
+		g.setStroke(new BasicStroke((float) (lineWidth / resolution), BasicStroke.CAP_ROUND,
+				BasicStroke.JOIN_ROUND));
+		Path2D path = new Path2D.Double();
+		for (int i = 0; i < n; i++) {
+			// map rows go from the lowest y
+			double mx = (xs[i] - originX) / resolution;
+			double my = (ys[i] - originY) / resolution;
+			if (i == 0) {
+				path.moveTo(mx, my);
+			} else {
+				path.lineTo(mx, my);
+			}
+		}
+		path.closePath();
+		g.draw(path);
+		g.dispose();
+		map = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Creates the default track: a 240 x 160 cm rounded rectangle with a wavy
+	 * section on one of the long sides, with line 2 cm wide.
+	 *
+	 * @return
+	 */
+	public static Track createDefault() {
+		double w = 240, h = 160, r = 40;
+		Path2D.Double outline = new Path2D.Double();
+		outline.moveTo(r, 0);
+		outline.lineTo(w - r, 0);
+		outline.quadTo(w, 0, w, r);
+		outline.lineTo(w, h - r);
+		outline.quadTo(w, h, w - r, h);
+		outline.lineTo(r, h);
+		outline.quadTo(0, h, 0, h - r);
+		outline.lineTo(0, r);
+		outline.quadTo(0, 0, r, 0);
+
+		// sample the outline every centimeter, with a wave on the bottom side
+		PathIterator it = outline.getPathIterator(null, 0.1);
+		DoubleList sx = new DoubleList();
+		DoubleList sy = new DoubleList();
+		double[] c = new double[6];
+		double px = 0, py = 0;
+		while (!it.isDone()) {
+			int type = it.currentSegment(c);
+			if (type == PathIterator.SEG_MOVETO) {
+				px = c[0];
+				py = c[1];
+			} else if (type == PathIterator.SEG_LINETO) {
+				double len = Math.hypot(c[0] - px, c[1] - py);
+				int steps = Math.max(1, (int) Math.round(len));
+				for (int k = 0; k < steps; k++) {
+					double x = px + (c[0] - px) * k / steps;
+					double y = py + (c[1] - py) * k / steps;
+					if (y == 0 && x > 2 * r && x < w - 2 * r) {
+						y = 12 * Math.sin((x - 2 * r) / (w - 4 * r) * 2 * Math.PI);
+					}
+					sx.add(x);
+					sy.add(y);
+				}
+				px = c[0];
+				py = c[1];
+			}
+			it.next();
+		}
+		double[] xs = new double[sx.size()];
+		double[] ys = new double[sy.size()];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = sx.get(i);
+			ys[i] = sy.get(i);
+		}
+		return new Track(xs, ys, 2, 0.25);
+	}
+
+	/**
+	 * @return length of the center line in centimeters
+	 */
+	public double getLength() {
+		return lengths[xs.length];
+	}
+
+	public double getLineWidth() {
+		return lineWidth;
+	}
+
+	/**
+	 * Finds the nearest point of the center line.
+	 *
+	 * @param x
+	 * @param y
+	 * @param p
+	 *            object to fill
+	 * @return the given object
+	 */
+	public Projection project(double x, double y, Projection p) {
+		int n = xs.length;
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			double dx = xs[j] - xs[i];
+			double dy = ys[j] - ys[i];
+			double len2 = dx * dx + dy * dy;
+			double t = len2 == 0 ? 0 : ((x - xs[i]) * dx + (y - ys[i]) * dy) / len2;
+			t = Math.max(0, Math.min(1, t));
+			double nx = xs[i] + t * dx;
+			double ny = ys[i] + t * dy;
+			double d2 = (x - nx) * (x - nx) + (y - ny) * (y - ny);
+			if (d2 < best) {
+				best = d2;
+				double cross = dx * (y - ys[i]) - dy * (x - xs[i]);
+				p.distance = Math.copySign(Math.sqrt(d2), cross);
+				p.position = lengths[i] + t * (lengths[i + 1] - lengths[i]);
+				p.direction = Math.atan2(dy, dx);
+				p.x = nx;
+				p.y = ny;
+			}
+		}
+		return p;
+	}
+
+	/**
+	 * Returns luminance of the floor at the given point.
+	 *
+	 * @param x
+	 * @param y
+	 * @return {@code 0..255}
+	 */
+	public int sample(double x, double y) {
+		int mx = (int) ((x - originX) / resolution);
+		int my = (int) ((y - originY) / resolution);
+		if (mx < 0 || my < 0 || mx >= mapWidth || my >= mapHeight)
+			return FLOOR_LUMINANCE;
+		return map[my * mapWidth + mx] & 0xFF;
+	}
+
+	/**
+	 * @return {@code x} coordinate of the first point of the center line
+	 */
+	public double getStartX() {
+		return xs[0];
+	}
+
+	/**
+	 * @return {@code y} coordinate of the first point of the center line
+	 */
+	public double getStartY() {
+		return ys[0];
+	}
+
+	/**
+	 * @return direction of the track at the first point
+	 */
+	public double getStartDirection() {
+		return Math.atan2(ys[1] - ys[0], xs[1] - xs[0]);
+	}
+
+}
@@ -0,0 +1,392 @@
+package net.talentum.jackie.robot.sim;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.function.LongConsumer;
+
+import net.talentum.jackie.comm.Commander;
+import net.talentum.jackie.comm.MPU6050;
+import net.talentum.jackie.comm.sim.SimulatedBus;
+import net.talentum.jackie.image.supplier.ImageSupplier;
+
+/**
+ * Closed-loop simulation of the robot on a {@link Track}. Acts as the
+ * {@link ImageSupplier} of the robot: every requested image advances the
+ * simulated time by one frame period, during which the robot moves according
+ * to the propulsion motor values last written to the {@link SimulatedBus},
+ * and then a camera frame is rendered from the new pose.
+ *
+ * <p>
+ * Simulated time doesn't depend on the wall clock, so the loop runs as fast as
+ * the robot can process the frames. The control loop should take its time from
+ * {@link #getTime()} (see {@link net.talentum.jackie.robot.Robot#setClock}).
+ * </p>
+ *
+ * <p>
+ * The robot is a differential drive, motor value {@code 90} corresponding to
+ * the maximum wheel speed. The camera looks down in front of the robot, its
+ * view is a trapezoid on the floor; frames are {@code TYPE_BYTE_GRAY}. If the
+ * robot gets too far from the line, it is put back on the nearest point of the
+ * center line, heading along the track, and a derailment is counted.
+ * </p>
+ *
+ * <p>
+ * Cross-track error is the distance of the center of the wheel axis from the
+ * center line; laps are measured by the progress along the center line.
+ * </p>
+ *
+ * <p>
+ * The Z-axis rate of the MPU-6050 on the bus follows the rotation of the
+ * robot. A control loop running faster than the camera can be stepped within
+ * the frames with {@link #setInnerLoop(LongConsumer, int)}.
+ * </p>
+ *
+ * <p>
+ * Latency of the camera is simulated by returning a frame rendered the given
+ * number of frames earlier ({@link #setLatency(int)}); {@link #getTimestamp()}
+ * is the simulated time of its rendering.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class TrackSimulator implements ImageSupplier {
+
+	/**
+	 * Integration steps per frame
+	 */
+	private static final int SUBSTEPS = 8;
+
+	private final Track track;
+	private final SimulatedBus bus;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Called before every frame, e.g. to let the actuator writes reach the bus
+	 */
+	private Runnable beforeFrame;
+
+	/**
+	 * Called several times per frame with the simulated time
+	 */
+	private LongConsumer innerLoop;
+	private int innerSteps = 1;
+
+	// ===== Parameters =====
+
+	/**
+	 * Duration of one frame in nanoseconds
+	 */
+	private long framePeriod = 33333333;
+
+	/**
+	 * Wheel speed at motor value {@code 90}, in cm/s
+	 */
+	private double maxWheelSpeed = 60;
+
+	/**
+	 * Distance of the wheels in cm
+	 */
+	private double wheelBase = 16;
+
+	/**
+	 * Distance of the nearest and the farthest row of the view from the wheel
+	 * axis, and width of the view in them, in cm
+	 */
+	private double near = 6, far = 26, nearWidth = 14, farWidth = 26;
+
+	/**
+	 * Cross-track error that counts as a derailment, in cm
+	 */
+	private double derailDistance = 20;
+
+	// ===== State =====
+
+	private BufferedImage[] images = new BufferedImage[2];
+	private long[] imageTimes = new long[2];
+	private int current = 0;
+	private int latency = 0;
+	private volatile long timestamp = 0;
+
+	private double x;
+	private double y;
+	private double theta;
+	private double omega;
+	private volatile long time = 0;
+
+	private final Track.Projection projection = new Track.Projection();
+	private double lastPosition;
+
+	// ===== Statistics, guarded by this =====
+
+	private long frames;
+	private double distance;
+	private double errorSquares;
+	private double maxError;
+	private int derailments;
+
+	/**
+	 * @param track
+	 * @param bus
+	 *            bus the robot writes the motor values to
+	 * @param width
+	 *            width of the frames
+	 * @param height
+	 *            height of the frames
+	 */
+	public TrackSimulator(Track track, SimulatedBus bus, int width, int height) {
+		this.track = track;
+		this.bus = bus;
+		this.width = width;
+		this.height = height;
+		for (int i = 0; i < images.length; i++) {
+			images[i] = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		}
+		x = track.getStartX();
+		y = track.getStartY();
+		theta = track.getStartDirection();
+		lastPosition = track.project(x, y, projection).position;
+	}
+
+	@Override
+	public BufferedImage getImage() {
+		if (beforeFrame != null) {
+			beforeFrame.run();
+		}
+
+		long step = framePeriod / innerSteps;
+		for (int i = 0; i < innerSteps; i++) {
+			if (innerLoop != null) {
+				bus.setMpuValue(MPU6050.REGISTER_GYRO_Z, gyroValue());
+				innerLoop.accept(time);
+			}
+			int left = bus.getMotor(Commander.MOTOR_LEFT) - 90;
+			int right = bus.getMotor(Commander.MOTOR_RIGHT) - 90;
+			move(left, right, step / 1e9);
+			time += step;
+		}
+
+		measure();
+
+		current = (current + 1) % images.length;
+		render(images[current]);
+		imageTimes[current] = time;
+
+		int shown = (current - latency + images.length) % images.length;
+		timestamp = imageTimes[shown];
+		return images[shown];
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Integrates the differential drive model.
+	 */
+	private void move(int left, int right, double dt) {
+		double vl = left / 90.0 * maxWheelSpeed;
+		double vr = right / 90.0 * maxWheelSpeed;
+		double v = (vl + vr) / 2;
+		omega = (vr - vl) / wheelBase;
+		double step = dt / SUBSTEPS;
+		for (int i = 0; i < SUBSTEPS; i++) {
+			x += v * Math.cos(theta) * step;
+			y += v * Math.sin(theta) * step;
+			theta += omega * step;
+		}
+	}
+
+	/**
+	 * @return raw value of the gyroscope for the last rotation speed,
+	 *         saturated at the end of the range
+	 */
+	private int gyroValue() {
+		long raw = Math.round(Math.toDegrees(omega) * MPU6050.GYRO_SENSITIVITY);
+		return (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, raw));
+	}
+
+	private synchronized void measure() {
+		track.project(x, y, projection);
+
+		// progress along the track, wrapped at the start point
+		double length = track.getLength();
+		double delta = projection.position - lastPosition;
+		if (delta > length / 2) {
+			delta -= length;
+		} else if (delta < -length / 2) {
+			delta += length;
+		}
+		distance += delta;
+		lastPosition = projection.position;
+
+		double error = Math.abs(projection.distance);
+		errorSquares += error * error;
+		maxError = Math.max(maxError, error);
+		frames++;
+
+		if (error > derailDistance) {
+			derailments++;
+			x = projection.x;
+			y = projection.y;
+			theta = projection.direction;
+		}
+	}
+
+	/**
+	 * Renders the view of the camera.
+	 */
+	private void render(BufferedImage image) {
+		byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+		double cos = Math.cos(theta);
+		double sin = Math.sin(theta);
+		for (int row = 0; row < height; row++) {
+			// the first row is the farthest
+			double t = height > 1 ? (double) row / (height - 1) : 0;
+			double ahead = far + (near - far) * t;
+			double half = (farWidth + (nearWidth - farWidth) * t) / 2;
+
+			// start at the left edge, left is perpendicular to the heading
+			double px = x + ahead * cos - half * sin;
+			double py = y + ahead * sin + half * cos;
+			double step = width > 1 ? 2 * half / (width - 1) : 0;
+			double dx = step * sin;
+			double dy = -step * cos;
+
+			int offset = row * width;
+			for (int col = 0; col < width; col++) {
+				data[offset + col] = (byte) track.sample(px, py);
+				px += dx;
+				py += dy;
+			}
+		}
+	}
+
+	// ===== Configuration =====
+
+	/**
+	 * @param beforeFrame
+	 *            called before every frame, from the thread requesting the
+	 *            images
+	 */
+	public void setBeforeFrame(Runnable beforeFrame) {
+		this.beforeFrame = beforeFrame;
+	}
+
+	/**
+	 * @param innerLoop
+	 *            called with the simulated time before each of the steps,
+	 *            from the thread requesting the images, {@code null} to
+	 *            disable
+	 * @param steps
+	 *            number of steps per frame
+	 */
+	public void setInnerLoop(LongConsumer innerLoop, int steps) {
+		this.innerLoop = innerLoop;
+		this.innerSteps = Math.max(1, steps);
+	}
+
+	/**
+	 * Sets the latency of the camera. The frames rendered before the start
+	 * show the starting position. Must be called before the first frame.
+	 *
+	 * @param frames
+	 *            number of frames rendered after the returned one
+	 */
+	public void setLatency(int frames) {
+		latency = Math.max(0, frames);
+		images = new BufferedImage[latency + 2];
+		imageTimes = new long[latency + 2];
+		for (int i = 0; i < images.length; i++) {
+			images[i] = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+			render(images[i]);
+		}
+	}
+
+	/**
+	 * @param framePeriod
+	 *            simulated time between frames in nanoseconds
+	 */
+	public void setFramePeriod(long framePeriod) {
+		this.framePeriod = framePeriod;
+	}
+
+	public long getFramePeriod() {
+		return framePeriod;
+	}
+
+	/**
+	 * @param maxWheelSpeed
+	 *            wheel speed at motor value {@code 90}, in cm/s
+	 * @param wheelBase
+	 *            distance of the wheels in cm
+	 */
+	public void setDrive(double maxWheelSpeed, double wheelBase) {
+		this.maxWheelSpeed = maxWheelSpeed;
+		this.wheelBase = wheelBase;
+	}
+
+	/**
+	 * Sets the view of the camera, a trapezoid on the floor in front of the
+	 * robot. All values are in cm.
+	 *
+	 * @param near
+	 *            distance of the bottom row from the wheel axis
+	 * @param far
+	 *            distance of the top row from the wheel axis
+	 * @param nearWidth
+	 *            width of the view in the bottom row
+	 * @param farWidth
+	 *            width of the view in the top row
+	 */
+	public void setView(double near, double far, double nearWidth, double farWidth) {
+		this.near = near;
+		this.far = far;
+		this.nearWidth = nearWidth;
+		this.farWidth = farWidth;
+	}
+
+	// ===== Results =====
+
+	/**
+	 * @return simulated time in nanoseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public synchronized long getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * @return completed laps, negative when driving backwards
+	 */
+	public synchronized double getLaps() {
+		return distance / track.getLength();
+	}
+
+	/**
+	 * @return root mean square of the cross-track error in cm
+	 */
+	public synchronized double getCrossTrackRms() {
+		return frames == 0 ? 0 : Math.sqrt(errorSquares / frames);
+	}
+
+	/**
+	 * @return maximum cross-track error in cm
+	 */
+	public synchronized double getCrossTrackMax() {
+		return maxError;
+	}
+
+	public synchronized int getDerailments() {
+		return derailments;
+	}
+
+}
@@ -1,9 +1,9 @@
 package net.talentum.jackie.robot.state;
 
 import java.awt.Point;
-import java.awt.image.BufferedImage;
 
 import net.talentum.jackie.comm.Commander;
+import net.talentum.jackie.image.BurstCaptureBallFinder;
 import net.talentum.jackie.image.SubtractingImageBallFinder;
 import net.talentum.jackie.module.MotorIntensityFunction;
 import net.talentum.jackie.module.impl.BasicMotorIntensityFunction;
@@ -15,24 +15,36 @@ public class CenteringEvacuationState extends AbstractState {
 
 	MotorIntensityFunction mif;
 	private SubtractingImageBallFinder subtractingImageBallFinder;
+	private BurstCaptureBallFinder ballFinder;
 
 	public CenteringEvacuationState(Robot robot) {
 		super(robot);
 		mif = new BasicMotorIntensityFunction();
 		subtractingImageBallFinder = new SubtractingImageBallFinder();
+		ballFinder = new BurstCaptureBallFinder(subtractingImageBallFinder, robot::getImage, robot::getImageTime,
+				value -> {
+					// the light has to be really on for the capture
+					robot.actuators.light(Commander.FLASHLIGHT, value);
+					robot.actuators.flush();
+				});
 	}
 
 	@Override
 	public void begin() {
 		int normalSpeed = Config.get().getInt("params/speeds/arm/normal");
-		robot.commander.writePropulsionMotors(normalSpeed);
+		robot.actuators.writePropulsionMotors(normalSpeed);
 
-		robot.commander.writeMotor(Commander.MOTOR_CAMERA, Config.get().getInt("params/motorPositions/camera/middle"));
-		robot.commander.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/middle"));
+		robot.actuators.writeMotor(Commander.MOTOR_CAMERA, Config.get().getInt("params/motorPositions/camera/middle"));
+		robot.actuators.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/middle"));
 
 		TimeTools.sleep(1000);
 
-		robot.commander.writePropulsionMotors(0);
+		robot.actuators.writePropulsionMotors(0);
+	}
+
+	@Override
+	public void end() {
+		ballFinder.close();
 	}
 
 	public void goToCenter() {
@@ -42,6 +54,10 @@ public class CenteringEvacuationState extends AbstractState {
 
 			left = robot.commander.readUltrasonicSensor(Commander.ULTRASONIC_LEFT);
 			right = robot.commander.readUltrasonicSensor(Commander.ULTRASONIC_RIGHT);
+			if (Double.isNaN(left) || Double.isNaN(right)) {
+				// failed read, the difference would be NaN
+				continue;
+			}
 
 			if (robot.commander.readUltrasonicSensor(Commander.ULTRASONIC_FRONT) < 60 && left < 40 && right < 40) {
 				break;
@@ -55,22 +71,13 @@ public class CenteringEvacuationState extends AbstractState {
 	}
 
 	private Point findBall() {
-		robot.commander.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/normal"));
-
-		robot.commander.light(1, false);
-		TimeTools.sleep(500);
-		BufferedImage img1 = robot.getImage();
-
-		robot.commander.light(1, true);
-		TimeTools.sleep(500);
-		BufferedImage img2 = robot.getImage();
-		robot.commander.light(1, false);
-
-		Point ball = null;
-		if (img1 != null && img2 != null) {
-			ball = subtractingImageBallFinder.find(img1, img2);
-			ball.translate(- subtractingImageBallFinder.result.getWidth() / 2, 0);
-			ball.y = subtractingImageBallFinder.result.getHeight() - ball.y;
+		robot.actuators.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/normal"));
+
+		Point ball = ballFinder.find(Config.get().getInt("params/ballFinding/pairs"),
+				Config.get().getLong("params/ballFinding/settleDelay"));
+		if (ball != null) {
+			ball.translate(- subtractingImageBallFinder.getWidth() / 2, 0);
+			ball.y = subtractingImageBallFinder.getHeight() - ball.y;
 		}
 
 		return ball;
@@ -89,15 +96,15 @@ public class CenteringEvacuationState extends AbstractState {
 			if (ball != null) {
 				speed = Config.get().getInt("params/speeds/normal");
 				int side = ball.x > 0 ? 1 : -1;
-				robot.commander.writePropulsionMotors(speed * side, - speed * side);
+				robot.actuators.writePropulsionMotors(speed * side, - speed * side);
 				
 				
 				
 			} else {
 				speed = Config.get().getInt("params/speeds/normal");
-				robot.commander.writePropulsionMotors(-speed, speed);
+				robot.actuators.writePropulsionMotors(-speed, speed);
 				TimeTools.sleep(600);
-				robot.commander.writePropulsionMotors(0);
+				robot.actuators.writePropulsionMotors(0);
 				continue;
 			}
 
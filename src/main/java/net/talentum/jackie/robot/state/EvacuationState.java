@@ -1,9 +1,9 @@
 package net.talentum.jackie.robot.state;
 
 import java.awt.Point;
-import java.awt.image.BufferedImage;
 
 import net.talentum.jackie.comm.Commander;
+import net.talentum.jackie.image.BurstCaptureBallFinder;
 import net.talentum.jackie.image.SubtractingImageBallFinder;
 import net.talentum.jackie.robot.Robot;
 import net.talentum.jackie.system.Config;
@@ -12,6 +12,7 @@ import net.talentum.jackie.tools.TimeTools;
 public class EvacuationState extends AbstractState {
 
 	private SubtractingImageBallFinder subtractingImageBallFinder;
+	private BurstCaptureBallFinder ballFinder;
 	
 	private boolean longSideNorth;
 	
@@ -20,26 +21,48 @@ public class EvacuationState extends AbstractState {
 	public EvacuationState(Robot robot) {
 		super(robot);
 		this.subtractingImageBallFinder = new SubtractingImageBallFinder();
+		ballFinder = new BurstCaptureBallFinder(subtractingImageBallFinder, robot::getImage, robot::getImageTime,
+				value -> {
+					// the light has to be really on for the capture
+					robot.actuators.light(Commander.FLASHLIGHT, value);
+					robot.actuators.flush();
+				});
 	}
 	
 	@Override
 	public void begin() {
 		int normalSpeed = Config.get().getInt("params/speeds/arm/normal");
-		robot.commander.writePropulsionMotors(normalSpeed);
+		robot.actuators.writePropulsionMotors(normalSpeed);
 		
-		robot.commander.writeMotor(Commander.MOTOR_CAMERA, Config.get().getInt("params/motorPositions/camera/middle"));
-		robot.commander.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/middle"));
+		robot.actuators.writeMotor(Commander.MOTOR_CAMERA, Config.get().getInt("params/motorPositions/camera/middle"));
+		robot.actuators.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/middle"));
 		
 		TimeTools.sleep(1000);
 		
-		robot.commander.writePropulsionMotors(0);
+		robot.actuators.writePropulsionMotors(0);
 		
+		// the sensors return NaN if the read failed, comparisons would be false
 		double front = robot.commander.readUltrasonicSensor(Commander.ULTRASONIC_FRONT);
-		longSideNorth = front <= 95;
+		if (Double.isNaN(front)) {
+			System.out.println("EvacuationState: front distance unavailable, assuming the short side north");
+			longSideNorth = false;
+		} else {
+			longSideNorth = front <= 95;
+		}
 		
 		double left = robot.commander.readUltrasonicSensor(Commander.ULTRASONIC_LEFT);
 		double right = robot.commander.readUltrasonicSensor(Commander.ULTRASONIC_RIGHT);
-		leftCorner = left < right;
+		if (Double.isNaN(left) || Double.isNaN(right)) {
+			System.out.println("EvacuationState: side distances unavailable, assuming the corner on the left");
+			leftCorner = true;
+		} else {
+			leftCorner = left < right;
+		}
+	}
+
+	@Override
+	public void end() {
+		ballFinder.close();
 	}
 
 	@Override
@@ -51,23 +74,10 @@ public class EvacuationState extends AbstractState {
 	}
 
 	private Point findBall() {
-		robot.commander.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/normal"));
+		robot.actuators.writeMotor(Commander.MOTOR_ARM, Config.get().getInt("params/motorPositions/arm/normal"));
 
-		robot.commander.light(1, false);
-		TimeTools.sleep(500);
-		BufferedImage img1 = robot.getImage();
-
-		robot.commander.light(1, true);
-		TimeTools.sleep(500);
-		BufferedImage img2 = robot.getImage();
-		robot.commander.light(1, false);
-
-		Point ball = null;
-		if (img1 != null && img2 != null) {
-			ball = subtractingImageBallFinder.find(img1, img2);
-		}
-		
-		return ball;
+		return ballFinder.find(Config.get().getInt("params/ballFinding/pairs"),
+				Config.get().getLong("params/ballFinding/settleDelay"));
 	}
 
 	/**
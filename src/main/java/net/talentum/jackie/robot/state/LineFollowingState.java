@@ -6,24 +6,47 @@ import java.awt.image.BufferedImage;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 
-import net.talentum.jackie.libs.PIDController;
+import net.talentum.jackie.module.BooleanImageFilterModule;
 import net.talentum.jackie.module.MotorIntensityFunction;
+import net.talentum.jackie.module.impl.AdaptiveBooleanImageFilterModule;
 import net.talentum.jackie.module.impl.BasicBorderFinderModule;
 import net.talentum.jackie.module.impl.BasicIntersectionSolver;
 import net.talentum.jackie.module.impl.BlurImageModifierModule;
+import net.talentum.jackie.module.impl.PreviousFrameTrailTrackerModule;
 import net.talentum.jackie.module.impl.SimpleMotorIntensityFunction;
 import net.talentum.jackie.module.impl.UnivBooleanImageFilterModule;
+import net.talentum.jackie.robot.GyroHeadingLoop;
+import net.talentum.jackie.robot.MotionModel;
 import net.talentum.jackie.robot.Robot;
 import net.talentum.jackie.robot.RobotInstruction;
+import net.talentum.jackie.robot.SensorData;
 import net.talentum.jackie.robot.strategy.HorizontalLevelObservingStrategy;
 import net.talentum.jackie.system.Config;
 import net.talentum.jackie.system.ConfigurationManager;
+import net.talentum.jackie.tools.MathTools;
 import net.talentum.jackie.tools.TimeTools;
+import net.talentum.jackie.tools.TimedPIDController;
 
 /**
  * State intended for following black line, using the line
  * {@link HorizontalLevelObservingState}.
  * 
+ * <p>
+ * With {@code params/lineFollowing/gyro/enabled}, the control is cascaded: the
+ * output of the PID controller, multiplied by
+ * {@code params/lineFollowing/gyro/headingGain}, is a correction of the
+ * heading in radians, relative to the heading at the time the frame was taken,
+ * and the {@link GyroHeadingLoop} steers the motors to reach it between the
+ * frames.
+ * </p>
+ * 
+ * <p>
+ * With {@code params/lineFollowing/latencyCompensation}, the destination found
+ * in the image is moved by the {@link MotionModel} to where it would be seen at
+ * the time of writing the motors, so that the controller doesn't react to the
+ * position of the line at the time of capture.
+ * </p>
+ * 
  * @author padr31
  *
  */
@@ -31,9 +54,20 @@ public class LineFollowingState extends AbstractState {
 
 	//private RobotStrategy strategy;
 	public HorizontalLevelObservingStrategy strategy;
-	protected PIDController pid;
+	protected TimedPIDController pid;
 	private MotorIntensityFunction mif;
-	
+
+	/**
+	 * Inner loop of the cascaded control, {@code null} if disabled
+	 */
+	private GyroHeadingLoop gyroLoop;
+	private volatile double headingGain;
+
+	/**
+	 * Model compensating the latency, {@code null} if disabled
+	 */
+	private MotionModel motionModel;
+
 	private int nearMeasurements = 0;
 	
 	private long lastUS = 0;
@@ -45,31 +79,59 @@ public class LineFollowingState extends AbstractState {
 		this.mif = new SimpleMotorIntensityFunction();
 
 		// @formatter:off
+		BooleanImageFilterModule filter;
+		if ("adaptive".equals(config.getString("params/bwTresholdMode", "fixed"))) {
+			filter = new AdaptiveBooleanImageFilterModule(
+					config.getInt("params/adaptiveTreshold/tilesX", 1),
+					config.getInt("params/adaptiveTreshold/tilesY", 1),
+					() -> Config.get().getInt("params/bwTreshold"),
+					() -> Config.get().getInt("params/adaptiveTreshold/minContrast")
+			);
+		} else {
+			filter = new UnivBooleanImageFilterModule(() -> Config.get().getInt("params/bwTreshold"));
+		}
+
 		this.strategy = new HorizontalLevelObservingStrategy(
 				new BlurImageModifierModule(),
-				new UnivBooleanImageFilterModule(() -> Config.get().getInt("params/bwTreshold")),
+				filter,
 				new BasicBorderFinderModule(2, 600, 3),
-				new BasicIntersectionSolver()
+				new BasicIntersectionSolver(),
+				new PreviousFrameTrailTrackerModule(20, 0.5)
 		);
 
-		// create and setup PIDController
-		pid = new PIDController(
+		// create PID controller, gains are swapped on config reload
+		pid = new TimedPIDController(readGains(config), -Math.PI / 2, Math.PI / 2);
+		robot.addConfigChangedListener(() -> {
+			pid.setGains(readGains(config));
+		});
+		// @formatter:on
+
+		if (config.getBoolean("params/lineFollowing/latencyCompensation", false)) {
+			motionModel = new MotionModel(robot.motorHistory);
+			motionModel.configure(config);
+			robot.addConfigChangedListener(() -> {
+				motionModel.configure(config);
+			});
+		}
+
+		if (config.getBoolean("params/lineFollowing/gyro/enabled", false)) {
+			gyroLoop = new GyroHeadingLoop(robot, mif);
+			headingGain = config.getDouble("params/lineFollowing/gyro/headingGain", 1);
+			robot.addConfigChangedListener(() -> {
+				headingGain = config.getDouble("params/lineFollowing/gyro/headingGain", 1);
+			});
+		}
+	}
+
+	private static TimedPIDController.Gains readGains(HierarchicalConfiguration config) {
+		// @formatter:off
+		return new TimedPIDController.Gains(
 				config.getDouble("params/lineFollowing/pid/P"),
 				config.getDouble("params/lineFollowing/pid/I"),
-				config.getDouble("params/lineFollowing/pid/D")
+				config.getDouble("params/lineFollowing/pid/D"),
+				config.getDouble("params/lineFollowing/pid/period", 50) / 1000,
+				config.getDouble("params/lineFollowing/pid/derivativeFilter", 0) / 1000
 		);
-		pid.setInputRange(-Math.PI / 2, Math.PI / 2);
-		pid.setOutputRange(-Math.PI / 2, Math.PI / 2);
-		pid.setSetpoint(0);
-		pid.enable();
-		
-		robot.addConfigChangedListener(() -> {
-			pid.setPID(
-					config.getDouble("params/lineFollowing/pid/P"),
-					config.getDouble("params/lineFollowing/pid/I"),
-					config.getDouble("params/lineFollowing/pid/D")
-			);
-		});
 		// @formatter:on
 	}
 
@@ -80,16 +142,49 @@ public class LineFollowingState extends AbstractState {
 	 * @return
 	 */
 	public final synchronized RobotInstruction process(BufferedImage image) {
-		strategy.prepare(image);
+		return process(image, SensorData.UNKNOWN);
+	}
+
+	/**
+	 * Lets the strategy process the image captured at the given time.
+	 * 
+	 * @param image
+	 * @param captureTime
+	 *            time of the capture, in the clock of the {@link Robot}
+	 * @return
+	 */
+	public final synchronized RobotInstruction process(BufferedImage image, long captureTime) {
+		strategy.prepare(image, captureTime);
 		RobotInstruction instruction = strategy.evaluate();
 
 		return instruction;
 	}
 
+	@Override
+	public void begin() {
+		if (gyroLoop != null) {
+			gyroLoop.start();
+		}
+	}
+
+	@Override
+	public void end() {
+		if (gyroLoop != null) {
+			gyroLoop.stop();
+		}
+	}
+
+	/**
+	 * @return inner loop of the cascaded control, {@code null} if disabled
+	 */
+	public GyroHeadingLoop getGyroLoop() {
+		return gyroLoop;
+	}
+
 	@Override
 	public State run0() {
 		/*if (Robot.lastSpeedup + 5000 < System.currentTimeMillis() && Robot.reversed.getAndSet(false)) {
-			robot.commander.writePropulsionMotors(Config.get().getInt("params/speeds/reverse"));
+			robot.actuators.writePropulsionMotors(Config.get().getInt("params/speeds/reverse"));
 			TimeTools.sleep(1000);
 		}*/
 		
@@ -104,22 +199,33 @@ public class LineFollowingState extends AbstractState {
 					/*Robot.lastSpeedup = System.currentTimeMillis();
 					Robot.reversed.set(true);*/
 					nearMeasurements = 0;
-					robot.commander.writePropulsionMotors(Config.get().getInt("params/speeds/normal"));
-					TimeTools.sleep(3000);
-					robot.commander.writePropulsionMotors(Config.get().getInt("params/speeds/reverse"));
-					TimeTools.sleep(1500);
+					// open-loop manoeuvre, the inner loop must not steer
+					if (gyroLoop != null) {
+						gyroLoop.suspend();
+					}
+					try {
+						robot.actuators.writePropulsionMotors(Config.get().getInt("params/speeds/normal"));
+						TimeTools.sleep(3000);
+						robot.actuators.writePropulsionMotors(Config.get().getInt("params/speeds/reverse"));
+						TimeTools.sleep(1500);
+					} finally {
+						if (gyroLoop != null) {
+							gyroLoop.resume();
+						}
+					}
 				}
 			} else {
 				nearMeasurements = 0;
 			}
 		}
 
-		// obtain image
+		// obtain image, the correction will be relative to the heading now
+		double frameHeading = gyroLoop != null ? gyroLoop.getHeading() : 0;
 		BufferedImage img = robot.getImage();
 
 		if (img != null) {
 			// process
-			RobotInstruction instruction = process(img);
+			RobotInstruction instruction = process(img, robot.getImageTime());
 
 			// set motors
 			// check if the result is valid
@@ -128,19 +234,41 @@ public class LineFollowingState extends AbstractState {
 				// direction = Math.PI / 2 -
 				// Math.atan2(instruction.destination.y,
 				// instruction.destination.x);
-				heading = ((double) instruction.destination.x) / instruction.image.getWidth();
+				double x = instruction.destination.x;
+				long captureTime = instruction.momentData.sensorData.captureTime;
+				if (motionModel != null && captureTime != SensorData.UNKNOWN) {
+					// where the destination is now, the correction is relative
+					// to the current heading too
+					motionModel.integrate(captureTime, robot.nanoTime());
+					x = motionModel.project(x, instruction.destination.y, instruction.momentData.line,
+							instruction.image.getWidth(), instruction.image.getHeight());
+					if (gyroLoop != null) {
+						frameHeading = gyroLoop.getHeading();
+					}
+				}
+				heading = x / instruction.image.getWidth();
 			}
+
+			// let the strategy reuse the moment data, unless it still caches
+			// the instruction
+			strategy.recycle(instruction.momentData);
 		}
 
-		// compute heading (= control variable of PID controller)
-		pid.getInput(-heading);
-		heading = pid.performPID();
+		// compute heading (= control variable of PID controller), setpoint is 0
+		heading = MathTools.toRange(heading, -Math.PI / 2, Math.PI / 2);
+		heading = pid.update(heading, robot.nanoTime());
+
+		if (gyroLoop != null) {
+			// the inner loop writes the motors
+			gyroLoop.setSetpoint(frameHeading + headingGain * heading);
+			return this;
+		}
 
 		// get angle values to send
 		ImmutablePair<Integer, Integer> motors = mif.getMotors(heading);
 
 		// finally write motors
-		robot.commander.writePropulsionMotors(motors.left, motors.right);
+		robot.actuators.writePropulsionMotors(motors.left, motors.right);
 
 		return this;
 	}
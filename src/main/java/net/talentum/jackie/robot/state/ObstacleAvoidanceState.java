@@ -31,22 +31,22 @@ public class ObstacleAvoidanceState extends AbstractState {
 
 		// reverse
 		int reverse = Config.get().getInt("params/speeds/reverse");
-		robot.commander.writePropulsionMotors(reverse, reverse);
+		robot.actuators.writePropulsionMotors(reverse, reverse);
 		TimeTools.sleep(800);
 
 		// rotation
 		int rot = Config.get().getInt("params/speeds/rotation");
-		robot.commander.writePropulsionMotors((1 + side) / 2 * rot, (1 - side) / 2 * rot);
+		robot.actuators.writePropulsionMotors((1 + side) / 2 * rot, (1 - side) / 2 * rot);
 		TimeTools.sleep(1700);
-		robot.commander.writePropulsionMotors(0);
+		robot.actuators.writePropulsionMotors(0);
 
 		// robot.lineFollowingState.
 
 		// normal
 		int normal = 10;
-		robot.commander.writePropulsionMotors(normal);
+		robot.actuators.writePropulsionMotors(normal);
 		TimeTools.sleep(2100);
-		robot.commander.writePropulsionMotors(0);
+		robot.actuators.writePropulsionMotors(0);
 
 		BufferedImage img = robot.getImage();
 		img = blurrer.modify(img);
@@ -58,9 +58,9 @@ public class ObstacleAvoidanceState extends AbstractState {
 		}
 
 		double base = 2;
-		robot.commander.writePropulsionMotors((int) ((-side + base) * normal), (int) ((side + base) * normal));
+		robot.actuators.writePropulsionMotors((int) ((-side + base) * normal), (int) ((side + base) * normal));
 		TimeTools.sleep(1500);
-		robot.commander.writePropulsionMotors(0);
+		robot.actuators.writePropulsionMotors(0);
 
 		return robot.lineFollowingState;
 	}
@@ -11,10 +11,12 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.apache.commons.lang3.tuple.Triple;
 
+import net.talentum.jackie.image.TrailComponents;
 import net.talentum.jackie.module.BooleanImageFilterModule;
 import net.talentum.jackie.module.BorderFinderModule;
 import net.talentum.jackie.module.ImageModifierModule;
 import net.talentum.jackie.module.IntersectionSolver;
+import net.talentum.jackie.module.TrailTrackerModule;
 import net.talentum.jackie.robot.MomentData;
 import net.talentum.jackie.robot.RobotInstruction;
 import net.talentum.jackie.system.Config;
@@ -28,6 +30,24 @@ import net.talentum.jackie.tools.MathTools;
  * across the image. The main line, which simulates the reflectance sensor
  * array, is positioned horizontally across the image.
  * 
+ * <p>
+ * When a {@link TrailTrackerModule} is supplied, the strategy runs in tracking
+ * mode: each scanline is first searched in the window predicted from the
+ * previous images and the full scan from the centre of the image is used only
+ * when the prediction fails.
+ * </p>
+ * 
+ * <p>
+ * Without prediction, the trail is first located on the coarse levels of the
+ * {@link MomentData#pyramid}, probing only a fraction of the pixels, and the
+ * full resolution scan is the last resort.
+ * </p>
+ * 
+ * <p>
+ * If the trail crosses none of the lines, the robot heads to the largest
+ * connected component of the trail (see {@link TrailComponents}).
+ * </p>
+ * 
  * @author JJurM
  */
 public class HorizontalLevelObservingStrategy extends RobotStrategy {
@@ -36,6 +56,13 @@ public class HorizontalLevelObservingStrategy extends RobotStrategy {
 	BooleanImageFilterModule mBooleanImageFilter;
 	BorderFinderModule mBorderFinder;
 	IntersectionSolver mIntersectionSolver;
+	TrailTrackerModule mTrailTracker;
+
+	/**
+	 * Minimum area of a trail component, relative to the image area, to be
+	 * followed when no line crosses the trail
+	 */
+	static final double MIN_COMPONENT_AREA = 0.005;
 	
 	long observeTopMillis;
 	RobotInstruction lastInstruction;
@@ -50,21 +77,58 @@ public class HorizontalLevelObservingStrategy extends RobotStrategy {
 		this.mIntersectionSolver = mIntersectionSolver;
 	}
 
+	/**
+	 * Constructor for the tracking mode.
+	 * 
+	 * @param mTrailTracker
+	 *            tracker used for predicting the trail position; can be
+	 *            {@code null}
+	 */
+	public HorizontalLevelObservingStrategy(ImageModifierModule mImageModifier,
+			BooleanImageFilterModule mBooleanImageFilter, BorderFinderModule mBorderFinder,
+			IntersectionSolver mIntersectionSolver, TrailTrackerModule mTrailTracker) {
+		this(mImageModifier, mBooleanImageFilter, mBorderFinder, mIntersectionSolver);
+		this.mTrailTracker = mTrailTracker;
+	}
+
+	/**
+	 * Returns the tracker used in tracking mode.
+	 * 
+	 * @return the tracker or {@code null}
+	 */
+	public TrailTrackerModule getTrailTracker() {
+		return mTrailTracker;
+	}
+
 	@Override
 	public RobotInstruction evaluate() {
 		return evaluateA();
 	}
 
+	/**
+	 * The data of {@link #lastInstruction} is not recycled, because it's
+	 * returned again until {@link #lastInstructionUntil}.
+	 */
+	@Override
+	public void recycle(MomentData momentData) {
+		if (lastInstruction != null && lastInstruction.momentData == momentData)
+			return;
+		super.recycle(momentData);
+	}
+
 	@Override
 	public void prepare(BufferedImage image) {
 		super.prepare(image);
 
 		// process image
-		if (mImageModifier != null)
-			d.image = mImageModifier.modify(d.image);
+		d.frame = d.imageFrame();
+		if (mImageModifier != null) {
+			d.frame = mImageModifier.modify(d.frame);
+			d.image = d.frame.getImage();
+		}
 
 		// create boolean array
-		d.bw = mBooleanImageFilter.filter(d.image);
+		d.bw = mBooleanImageFilter.filter(d.frame, d);
 	}
 
 	public RobotInstruction evaluateA() {
@@ -101,7 +165,7 @@ public class HorizontalLevelObservingStrategy extends RobotStrategy {
 			//return new RobotInstruction(d.image, d, new Point(0, 1));
 		}
 		if (primary == null) {
-			return new RobotInstruction(d.image, d, new Point(0, 1));
+			return followLargestComponent(x);
 		}
 
 		Point destination;
@@ -111,7 +175,7 @@ public class HorizontalLevelObservingStrategy extends RobotStrategy {
 			destination = new Point((int) Math.round(1.5 * bottom.getMiddle().x - 0.5 * abottom.getMiddle().x), bottom.getMiddle().y);
 		}
 		
-		Point intersection = mIntersectionSolver.findMark(d.image, primary.getMiddle().y);
+		Point intersection = mIntersectionSolver.findMark(d, primary.getMiddle().y);
 		if (intersection != null) {
 			System.out.println("Found green mark");
 			d.highlight.add(intersection);
@@ -138,13 +202,38 @@ public class HorizontalLevelObservingStrategy extends RobotStrategy {
 		return new RobotInstruction(d.image, d, destination);
 	}
 
+	/**
+	 * Handles a gap, when none of the lines crossed the trail. The robot heads
+	 * to the centroid of the largest connected trail component, if there is
+	 * any large enough.
+	 * 
+	 * @param x
+	 *            {@code x} coordinate of the image center
+	 * @return
+	 */
+	protected RobotInstruction followLargestComponent(int x) {
+		TrailComponents components = d.getComponents();
+		int largest = components.getLargest();
+		if (largest == -1 || components.getArea(largest) < d.image.getWidth() * d.image.getHeight() * MIN_COMPONENT_AREA) {
+			return new RobotInstruction(d.image, d, new Point(0, 1));
+		}
+
+		Point centroid = new Point((int) Math.round(components.getCentroidX(largest)),
+				(int) Math.round(components.getCentroidY(largest)));
+		d.highlight.add(centroid);
+		return new RobotInstruction(d.image, d, new Point(centroid.x - x, centroid.y));
+	}
+
 	public RobotInstruction evaluateB() {
 		// process image
-		if (mImageModifier != null)
-			d.image = mImageModifier.modify(d.image);
+		d.frame = d.imageFrame();
+		if (mImageModifier != null) {
+			d.frame = mImageModifier.modify(d.frame);
+			d.image = d.frame.getImage();
+		}
 
 		// create boolean array
-		d.bw = mBooleanImageFilter.filter(d.image);
+		d.bw = mBooleanImageFilter.filter(d.frame, d);
 
 		Point center = new Point(d.image.getWidth() / 2, d.image.getHeight() * 3 / 4);
 		int radius = d.image.getHeight() / 2;
@@ -178,36 +267,63 @@ public class HorizontalLevelObservingStrategy extends RobotStrategy {
 	 * @return
 	 */
 	public Triple<Point, Point, Point> checkLine(Point p, double direction) {
-		Point trail = d.findLinearlyNearestPoint(p, direction + Math.PI / 2, true, Config.movedst, Integer.MAX_VALUE);
-
-		if (trail != null) {
-
-			ImmutablePair<Point, Point> borders = mBorderFinder.findBorders(d, trail, direction);
-
-			if (borders != null) {
-				d.bordersL.add(borders.left);
-				d.bordersR.add(borders.right);
-
-				// Point l = d.avg(borders.getLeft(), borders.getRight());
-				Point center = new Point(d.image.getWidth() / 2, p.y);
-				double dstL = d.dst(center, borders.left);
-				double dstR = d.dst(center, borders.right);
-				Point l;
-				if (Math.abs(dstL - dstR) < 5) {
-					l = center;
-				} else {
-					Point moreDistanced = (dstL > dstR) ? borders.left : borders.right;
-					Point averaged = d.weightedAvg(moreDistanced, center, d.dst(center, moreDistanced) / center.x);
-					l = new Point(MathTools.toRange(averaged.x, borders.left.x, borders.right.x),
-							MathTools.toRange(averaged.y, Math.min(borders.left.y, borders.right.y),
-									Math.max(borders.left.y, borders.right.y)));
+		ImmutablePair<Point, Point> borders = null;
+
+		// try the window predicted from previous images
+		if (mTrailTracker != null) {
+			Point predicted = mTrailTracker.predict(d, p.y);
+			if (predicted != null) {
+				borders = mBorderFinder.findBorders(d, predicted, direction);
+				if (borders != null && !mTrailTracker.confirm(p.y, borders.left, borders.right)) {
+					borders = null;
 				}
-				d.line.add(l);
+			}
+		}
+
+		// locate the trail on the pyramid, refine on the full image
+		if (borders == null) {
+			Point trail = d.findHorizontallyNearestTrailPoint(p, Integer.MAX_VALUE);
+			if (trail != null) {
+				borders = mBorderFinder.findBorders(d, trail, direction);
+			}
+		}
 
-				return new ImmutableTriple<Point, Point, Point>(borders.left, l, borders.right);
+		// fall back to full scan
+		if (borders == null) {
+			Point trail = d.findLinearlyNearestPoint(p, direction + Math.PI / 2, true, Config.movedst,
+					Integer.MAX_VALUE);
+			if (trail != null) {
+				borders = mBorderFinder.findBorders(d, trail, direction);
 			}
 		}
 
+		if (mTrailTracker != null) {
+			mTrailTracker.update(p.y, borders == null ? null : borders.left, borders == null ? null : borders.right);
+		}
+
+		if (borders != null) {
+			d.bordersL.add(borders.left);
+			d.bordersR.add(borders.right);
+
+			// Point l = d.avg(borders.getLeft(), borders.getRight());
+			Point center = new Point(d.image.getWidth() / 2, p.y);
+			double dstL = d.dst(center, borders.left);
+			double dstR = d.dst(center, borders.right);
+			Point l;
+			if (Math.abs(dstL - dstR) < 5) {
+				l = center;
+			} else {
+				Point moreDistanced = (dstL > dstR) ? borders.left : borders.right;
+				Point averaged = d.weightedAvg(moreDistanced, center, d.dst(center, moreDistanced) / center.x);
+				l = new Point(MathTools.toRange(averaged.x, borders.left.x, borders.right.x),
+						MathTools.toRange(averaged.y, Math.min(borders.left.y, borders.right.y),
+								Math.max(borders.left.y, borders.right.y)));
+			}
+			d.line.add(l);
+
+			return new ImmutableTriple<Point, Point, Point>(borders.left, l, borders.right);
+		}
+
 		return null;
 	}
 
@@ -275,16 +391,20 @@ public class HorizontalLevelObservingStrategy extends RobotStrategy {
 			// image.getHeight(), image.getHeight());
 
 			g.setColor(Color.GREEN);
-			d.bordersL.stream().forEach(p -> g.fillOval(p.x - 6, p.y - 6, 12, 12));
-			d.bordersR.stream().forEach(p -> g.fillOval(p.x - 6, p.y - 6, 12, 12));
+			d.bordersL.forEach((px, py) -> g.fillOval(px - 6, py - 6, 12, 12));
+			d.bordersR.forEach((px, py) -> g.fillOval(px - 6, py - 6, 12, 12));
 
 			g.setColor(Color.RED);
-			d.line.stream().forEach(p -> g.fillRect(p.x - 2, p.y - 2, 4, 4));
+			d.line.forEach((px, py) -> g.fillRect(px - 2, py - 2, 4, 4));
 
 			g.setColor(Color.CYAN);
-			d.highlight.stream().forEach(p -> g.fillRect(p.x - 2, p.y - 2, 4, 4));
+			d.highlight.forEach((px, py) -> g.fillRect(px - 2, py - 2, 4, 4));
 
 			g.setColor(Color.YELLOW);
+			TrailTrackerModule tracker = strategy.getTrailTracker();
+			if (tracker != null) {
+				g.drawString(String.format("tracking hit rate: %.1f %%", tracker.getHitRate() * 100), 5, 15);
+			}
 
 			return img;
 		}
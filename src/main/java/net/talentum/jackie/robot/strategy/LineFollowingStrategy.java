@@ -41,11 +41,14 @@ public class LineFollowingStrategy extends RobotStrategy {
 	@Override
 	public RobotInstruction evaluate() {
 		// process image
-		if (mImageModifier != null)
-			d.image = mImageModifier.modify(d.image);
+		d.frame = d.imageFrame();
+		if (mImageModifier != null) {
+			d.frame = mImageModifier.modify(d.frame);
+			d.image = d.frame.getImage();
+		}
 
 		// create boolean array
-		d.bw = mBooleanImageFilter.filter(d.image);
+		d.bw = mBooleanImageFilter.filter(d.frame, d);
 
 		// setup TrailWidthDeterminerModule
 		d.mTrailBordersMonitor = msTrailBordersMonitor.create(d);
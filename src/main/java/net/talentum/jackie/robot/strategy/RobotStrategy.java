@@ -19,14 +19,51 @@ public abstract class RobotStrategy {
 
 	protected MomentData d;
 
+	/**
+	 * {@link MomentData} returned by {@link #recycle(MomentData)}, to be reused
+	 * by the next {@link #prepare(BufferedImage)}.
+	 */
+	private MomentData spare;
+
 	/**
 	 * Prepares the strategy for processing the given moment. Involves creating
-	 * {@link MomentData} bonded to the moment.
+	 * {@link MomentData} bonded to the moment, or resetting a recycled one.
 	 * 
 	 * @param image
 	 */
 	public void prepare(BufferedImage image) {
-		d = new MomentData(image);
+		if (spare != null) {
+			d = spare.reset(image);
+			spare = null;
+		} else {
+			d = new MomentData(image);
+		}
+	}
+
+	/**
+	 * Prepares the strategy like {@link #prepare(BufferedImage)} and records
+	 * the time of capture of the image in {@link MomentData#sensorData}.
+	 * 
+	 * @param image
+	 * @param captureTime
+	 *            in the clock of the {@link net.talentum.jackie.robot.Robot}
+	 */
+	public void prepare(BufferedImage image, long captureTime) {
+		prepare(image);
+		d.sensorData.captureTime = captureTime;
+	}
+
+	/**
+	 * Hands the {@link MomentData} of an already consumed
+	 * {@link RobotInstruction} back to the strategy, so that its buffers can be
+	 * reused for the next image. The caller must not use the data afterwards.
+	 * Strategies keeping a reference to the data, e.g. in a cached
+	 * instruction, override this to leave it alone.
+	 * 
+	 * @param momentData
+	 */
+	public void recycle(MomentData momentData) {
+		spare = momentData;
 	}
 
 	/**
@@ -16,12 +16,40 @@ import org.apache.commons.configuration.HierarchicalConfiguration;
 public class Config {
 
 	public static int movedst;
+	public static double intersectionMinMaxValue;
+	public static int ballMinMaxValue;
+	public static int actuatorMinInterval;
+
+	/**
+	 * Time limit of one I2C transfer in microseconds
+	 */
+	public static int i2cTimeout = 10000;
+	public static int i2cRetries = 1;
+
+	/**
+	 * Time limit of reading an ultrasonic sensor in microseconds, the slave
+	 * measures the echo pulse for up to 38 ms
+	 */
+	public static int i2cUltrasonicTimeout = 50000;
+
+	/**
+	 * Maximum age of a streamed sensor value in milliseconds
+	 */
+	public static int sensorMaxAge = 100;
 
 	/**
 	 * Method to reload configuration
 	 */
 	public static void reload() {
-		movedst = ConfigurationManager.getGeneralConfiguration().getInt("params/movedst");
+		HierarchicalConfiguration config = ConfigurationManager.getGeneralConfiguration();
+		movedst = config.getInt("params/movedst");
+		intersectionMinMaxValue = config.getDouble("params/intersections/minMaxValue");
+		ballMinMaxValue = config.getInt("params/ballFinding/minMaxValue");
+		actuatorMinInterval = config.getInt("params/actuators/minInterval");
+		i2cTimeout = config.getInt("params/i2c/timeout");
+		i2cRetries = config.getInt("params/i2c/retries");
+		i2cUltrasonicTimeout = config.getInt("params/i2c/ultrasonicTimeout");
+		sensorMaxAge = config.getInt("params/sensors/maxAge");
 	}
 
 	/**
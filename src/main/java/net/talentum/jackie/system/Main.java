@@ -11,9 +11,11 @@ import net.talentum.jackie.comm.ButtonManager;
 import net.talentum.jackie.comm.Commander;
 import net.talentum.jackie.comm.ConsoleReader;
 import net.talentum.jackie.comm.I2CCommunicator;
+import net.talentum.jackie.comm.SerialCommunicator;
 import net.talentum.jackie.comm.TextInputProcessor;
 import net.talentum.jackie.image.supplier.ImageSupplier;
 import net.talentum.jackie.image.supplier.ServerImageSupplier;
+import net.talentum.jackie.module.TrailTrackerModule;
 import net.talentum.jackie.robot.Robot;
 import net.talentum.jackie.robot.state.State;
 import net.talentum.jackie.tools.FileChangedAutoReloadingStrategy;
@@ -37,6 +39,7 @@ public class Main {
 	private static TextInputProcessor textInputProcessor;
 	private static ConsoleReader consoleReader;
 	private static ButtonManager buttonManager;
+	private static SerialCommunicator serial;
 
 	public static Robot robot;
 	private static ImageSupplier imageSupplier;
@@ -60,6 +63,12 @@ public class Main {
 		System.out.println("Setting up control classes");
 		i2c = new I2CCommunicator();
 		commander = new Commander(i2c);
+		if (Config.get().getBoolean("params/sensors/streaming", false)) {
+			// sensors pushed by the board over serial
+			serial = new SerialCommunicator();
+			serial.configureStreams();
+			commander.setSensorCache(serial.sensors);
+		}
 		textInputProcessor = new TextInputProcessor(commander);
 		consoleReader = new ConsoleReader(textInputProcessor);
 		buttonManager = new ButtonManager(commander, textInputProcessor);
@@ -68,6 +77,9 @@ public class Main {
 		System.out.println("Creating robot");
 		robot = new Robot(commander);
 		ConfigurationManager.setReloadedListener(robot::configurationReloaded);
+		if (serial != null) {
+			robot.addConfigChangedListener(serial::configureStreams);
+		}
 
 		// create image supplier
 		imageSupplier = new ServerImageSupplier("localhost");
@@ -94,6 +106,11 @@ public class Main {
 		while (running.get()) {
 			int count = runs.getAndSet(0);
 			System.out.println(String.format("Runs: %d", count));
+			TrailTrackerModule tracker = robot.lineFollowingState.strategy.getTrailTracker();
+			if (tracker != null) {
+				System.out.println(String.format("Tracking hit rate: %.1f %%", tracker.getHitRate() * 100));
+				tracker.resetStatistics();
+			}
 			try {
 				Thread.sleep(1000);
 			} catch (InterruptedException e) {
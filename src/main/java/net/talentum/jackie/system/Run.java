@@ -61,6 +61,18 @@ public class Run {
 			case "text":
 				RuntimeTests.testText();
 				break;
+			case "luminance":
+				RuntimeTests.benchmarkLuminance(args2);
+				break;
+			case "bussim":
+				RuntimeTests.loadTestBus(args2);
+				break;
+			case "sim":
+				RuntimeTests.simulateTrack(args2);
+				break;
+			case "mark":
+				RuntimeTests.testIntersectionMark();
+				break;
 			default:
 				if (!"".equals(task)) {
 					System.out.println(String.format("'%s' is not a task.", args[0]));
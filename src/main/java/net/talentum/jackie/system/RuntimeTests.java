@@ -5,7 +5,10 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -18,9 +21,18 @@ import com.github.sarxos.webcam.ds.v4l4j.V4l4jDriver;
 import net.talentum.jackie.comm.Commander;
 import net.talentum.jackie.comm.ConsoleReader;
 import net.talentum.jackie.comm.Device;
+import net.talentum.jackie.comm.MPU6050;
 import net.talentum.jackie.comm.I2CCommunicator;
 import net.talentum.jackie.comm.SerialCommunicator;
 import net.talentum.jackie.comm.TextInputProcessor;
+import net.talentum.jackie.comm.sim.SimulatedBus;
+import net.talentum.jackie.image.Luminance;
+import net.talentum.jackie.robot.GyroHeadingLoop;
+import net.talentum.jackie.robot.Robot;
+import net.talentum.jackie.robot.RobotInstruction;
+import net.talentum.jackie.robot.sim.Track;
+import net.talentum.jackie.robot.sim.TrackSimulator;
+import net.talentum.jackie.robot.state.LineFollowingState;
 import net.talentum.jackie.tools.MathTools;
 import net.talentum.jackie.tools.TimeTools;
 
@@ -43,18 +55,16 @@ public class RuntimeTests {
 	public static void testSerial() {
 
 		SerialCommunicator sc = new SerialCommunicator();
-		executor.submit(new Runnable() {
-			@Override
-			public void run() {
-				while (true) {
-					String line = sc.readLine();
-					System.out.println(line);
-				}
+		sc.setHandler((type, payload, length) -> {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < length; i++) {
+				sb.append(' ').append(payload[i] & 0xFF);
 			}
+			System.out.println(String.format("type %d:%s", type, sb));
 		});
 
 		while (true) {
-			sc.write(1, MathTools.randomRange(0, 180), MathTools.randomRange(0, 180));
+			sc.writeMotors(MathTools.randomRange(0, 180), MathTools.randomRange(0, 180));
 			TimeTools.sleep(2000);
 		}
 
@@ -180,4 +190,257 @@ public class RuntimeTests {
 		cr.start();
 	}
 
+	/**
+	 * Compares the floating-point luminance formula with the fixed-point
+	 * {@link Luminance} kernel, on a random image of the given size (default
+	 * 640x480) for both image types produced by the suppliers.
+	 */
+	public static void benchmarkLuminance(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 640;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 480;
+		int rounds = 200;
+
+		for (int type : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR }) {
+			BufferedImage img = new BufferedImage(width, height, type);
+			Random random = new Random(0);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					img.setRGB(x, y, random.nextInt());
+				}
+			}
+			int[] row = new int[width];
+			byte[] dst = new byte[width];
+
+			// warm up both variants before measuring
+			for (int pass = 0; pass < 2; pass++) {
+				long sum = 0;
+				long start = System.nanoTime();
+				for (int k = 0; k < rounds; k++) {
+					for (int y = 0; y < height; y++) {
+						img.getRGB(0, y, width, 1, row, 0, width);
+						for (int x = 0; x < width; x++) {
+							int rgb = row[x];
+							sum += (int) (((rgb >> 16) & 0xFF) * 0.299) + (int) (((rgb >> 8) & 0xFF) * 0.587)
+									+ (int) ((rgb & 0xFF) * 0.114);
+						}
+					}
+				}
+				long floatTime = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int k = 0; k < rounds; k++) {
+					for (int y = 0; y < height; y++) {
+						Luminance.convertRow(img, y, dst, 0, row);
+						sum += dst[0];
+					}
+				}
+				long fixedTime = System.nanoTime() - start;
+
+				if (pass == 1) {
+					System.out.println(String.format("type %d: float %.3f ms/image, fixed %.3f ms/image (%d)", type,
+							floatTime / 1e6 / rounds, fixedTime / 1e6 / rounds, sum & 1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that the green intersection mark is found when a color image goes
+	 * through the image processing of {@link LineFollowingState}, including
+	 * the blur. The image is white with a black vertical line and a green mark
+	 * to the right of it. Exits with status {@code 1} on failure.
+	 */
+	public static void testIntersectionMark() {
+		ConfigurationManager.init();
+		Robot robot = new Robot(new Commander(new I2CCommunicator(new SimulatedBus())));
+		LineFollowingState state = new LineFollowingState(robot);
+
+		int width = 320, height = 240;
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int rgb = 0xFFFFFF;
+				if (x >= 150 && x < 170) {
+					rgb = 0x000000;
+				} else if (x >= 175 && x < 205 && y >= 150 && y < 210) {
+					rgb = 0x00C800;
+				}
+				img.setRGB(x, y, rgb);
+			}
+		}
+
+		RobotInstruction instruction = state.process(img);
+		if (instruction.momentData.highlight.isEmpty()) {
+			System.out.println("FAILED: intersection mark not found");
+			System.exit(1);
+		}
+		System.out.println("Intersection mark found at " + instruction.momentData.highlight.get(0));
+	}
+
+	/**
+	 * Load-tests the {@link Commander} against {@link SimulatedBus}. One
+	 * thread writes propulsion motors, one reads sensors and one reads buttons,
+	 * each as fast as possible. Arguments are latency of one bus operation in
+	 * microseconds (default 100), error rate (default 0) and duration in
+	 * seconds (default 5).
+	 */
+	public static void loadTestBus(String[] args) {
+		long latency = args.length > 0 ? Long.parseLong(args[0]) : 100;
+		double errorRate = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+		long duration = args.length > 2 ? Long.parseLong(args[2]) : 5;
+
+		SimulatedBus bus = new SimulatedBus();
+		bus.setLatency(latency * 1000);
+		bus.setErrorRate(errorRate);
+		bus.setDistance(Commander.ULTRASONIC_FRONT, 42);
+		bus.setMpuValue(MPU6050.REGISTER_GYRO_Z, -1234);
+
+		I2CCommunicator i2c = new I2CCommunicator(bus);
+		Commander commander = new Commander(i2c);
+		long end = System.nanoTime() + duration * 1000000000L;
+		long[] counts = new long[3];
+		long[] failures = new long[3];
+
+		List<Runnable> rounds = Arrays.asList(() -> {
+			commander.writePropulsionMotors(90 + (int) (counts[0] % 40), 90 - (int) (counts[0] % 40));
+		}, () -> {
+			commander.readUltrasonicSensor(Commander.ULTRASONIC_FRONT);
+			commander.readInfraredSensor(0);
+			commander.getGyroZ();
+		}, () -> {
+			commander.readButton(0, 0);
+			commander.readSwitch(0);
+		});
+
+		Thread[] threads = new Thread[rounds.size()];
+		for (int i = 0; i < threads.length; i++) {
+			int index = i;
+			threads[i] = new Thread(() -> {
+				while (System.nanoTime() < end) {
+					try {
+						rounds.get(index).run();
+					} catch (RuntimeException e) {
+						// reads returning no result
+						failures[index]++;
+					}
+					counts[index]++;
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		System.out.println(String.format("motor writes %d, sensor rounds %d (%d failed), interface rounds %d (%d failed)",
+				counts[0], counts[1], failures[1], counts[2], failures[2]));
+		System.out.println(String.format("bus operations %d, injected errors %d", bus.getOperationCount(),
+				bus.getInjectedErrorCount()));
+		for (String key : new String[] { "a", "b", "c", "m" }) {
+			Device d = i2c.getDevice(key);
+			System.out.println(String.format("device %s: errors %d, retries %d, timeouts %d", key,
+					d.getErrorCount(), d.getRetryCount(), d.getTimeoutCount()));
+		}
+		System.out.print(i2c.scheduler.getStatistics());
+	}
+
+	/**
+	 * Runs the robot in closed loop with {@link TrackSimulator}, faster than
+	 * real time, and reports the loop rate and the tracking quality. Arguments
+	 * are simulated duration in seconds (default 60), width and height of the
+	 * frames (default 320x240), followed by options: {@code gyro} to enable the
+	 * cascaded control with {@link GyroHeadingLoop}, {@code compensate} to
+	 * enable the latency compensation and {@code latency=<frames>} to delay the
+	 * camera.
+	 */
+	public static void simulateTrack(String[] args) {
+		long duration = args.length > 0 ? Long.parseLong(args[0]) : 60;
+		int width = args.length > 1 ? Integer.parseInt(args[1]) : 320;
+		int height = args.length > 2 ? Integer.parseInt(args[2]) : 240;
+		int latency = 0;
+
+		ConfigurationManager.init();
+		for (int i = 3; i < args.length; i++) {
+			if ("gyro".equals(args[i])) {
+				Config.get().setProperty("params/lineFollowing/gyro/enabled", true);
+			} else if ("compensate".equals(args[i])) {
+				Config.get().setProperty("params/lineFollowing/latencyCompensation", true);
+			} else if (args[i].startsWith("latency=")) {
+				latency = Integer.parseInt(args[i].substring("latency=".length()));
+			}
+		}
+		// the motor values are flushed before every frame, don't delay them
+		Config.actuatorMinInterval = 0;
+
+		SimulatedBus bus = new SimulatedBus();
+		Commander commander = new Commander(new I2CCommunicator(bus));
+		Robot robot = new Robot(commander);
+		TrackSimulator simulator = new TrackSimulator(Track.createDefault(), bus, width, height);
+		simulator.setLatency(latency);
+		simulator.setBeforeFrame(robot.actuators::flush);
+		robot.setImageSupplier(simulator);
+		robot.setClock(simulator::getTime);
+		robot.init();
+
+		GyroHeadingLoop gyroLoop = robot.lineFollowingState.getGyroLoop();
+		if (gyroLoop != null) {
+			// step the inner loop in the simulated time instead of its thread
+			gyroLoop.stop();
+			gyroLoop.reset();
+			long rate = Config.get().getLong("params/lineFollowing/gyro/rate", 400);
+			simulator.setInnerLoop(time -> {
+				gyroLoop.update(time);
+				robot.actuators.flush();
+			}, (int) (rate * simulator.getFramePeriod() / 1000000000));
+		}
+
+		long realStart = System.nanoTime();
+		long cpuStart = getProcessCpuTime();
+		robot.start();
+
+		long lastFrames = 0;
+		while (simulator.getTime() < duration * 1000000000L) {
+			TimeTools.sleep(1000);
+			long frames = simulator.getFrameCount();
+			System.out.println(String.format("t = %5.1f s, %5d Hz, laps %.2f, cross-track RMS %.2f cm",
+					simulator.getTime() / 1e9, frames - lastFrames, simulator.getLaps(),
+					simulator.getCrossTrackRms()));
+			lastFrames = frames;
+		}
+		robot.stop();
+
+		double real = (System.nanoTime() - realStart) / 1e9;
+		double cpu = (getProcessCpuTime() - cpuStart) / 1e9;
+		double laps = simulator.getLaps();
+		System.out.println(String.format("frames %d in %.2f s, loop %.1f Hz, %.1fx real time",
+				simulator.getFrameCount(), real, simulator.getFrameCount() / real, simulator.getTime() / 1e9 / real));
+		System.out.println(String.format("laps %.2f, cross-track RMS %.2f cm, max %.2f cm, derailments %d", laps,
+				simulator.getCrossTrackRms(), simulator.getCrossTrackMax(), simulator.getDerailments()));
+		if (gyroLoop != null) {
+			System.out.println(String.format("inner loop updates %d, failures %d", gyroLoop.getUpdateCount(),
+					gyroLoop.getFailureCount()));
+		}
+		if (cpu > 0) {
+			System.out.println(String.format("CPU %.2f s, %.3f laps per CPU-second", cpu, laps / cpu));
+		}
+		System.out.print(commander.i2c.scheduler.getStatistics());
+	}
+
+	/**
+	 * @return CPU time used by the process in nanoseconds, or {@code -1} if
+	 *         the JVM doesn't provide it
+	 */
+	private static long getProcessCpuTime() {
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
 }
@@ -26,6 +26,8 @@ import net.talentum.jackie.image.supplier.ImageSupplierProvider;
 import net.talentum.jackie.image.supplier.LocalWebcamImageSupplier;
 import net.talentum.jackie.image.supplier.OpenCVImageSupplier;
 import net.talentum.jackie.image.supplier.ServerImageSupplier;
+import net.talentum.jackie.image.supplier.V4L2ImageSupplier;
+import net.talentum.jackie.module.impl.AdaptiveBooleanImageFilterModule;
 import net.talentum.jackie.module.impl.AveragingTrailWidthDeterminerModule;
 import net.talentum.jackie.module.impl.BasicAngularTurnHandlerModule;
 import net.talentum.jackie.module.impl.BasicBorderFinderModule;
@@ -34,6 +36,7 @@ import net.talentum.jackie.module.impl.BasicLineFinderModule;
 import net.talentum.jackie.module.impl.BlurImageModifierModule;
 import net.talentum.jackie.module.impl.BottomLineStartFinderModule;
 import net.talentum.jackie.module.impl.BufferedImageMatConverterModule;
+import net.talentum.jackie.module.impl.PreviousFrameTrailTrackerModule;
 import net.talentum.jackie.module.impl.UnivBooleanImageFilterModule;
 import net.talentum.jackie.module.impl.VectorDirectionManagerModule;
 import net.talentum.jackie.robot.strategy.BallFinderStrategy;
@@ -95,6 +98,7 @@ public class StrategyComparatorPreview {
 		}
 		list.add(new OpenCVImageSupplier.Provider("OpenCV"));
 		list.add(new ServerImageSupplier.Provider("Server"));
+		list.add(new V4L2ImageSupplier.Provider("V4L2"));
 		
 		imageSupplierProviders = list.toArray(new ImageSupplierProvider[0]);
 	}
@@ -153,6 +157,20 @@ public class StrategyComparatorPreview {
 				new BasicBorderFinderModule(2, 600, 3),
 				new BasicIntersectionSolver()
 		)));
+		list.add(p -> new HorizontalLevelObservingStrategy.ImageOutput(String.format("*HorizontalLevelObserving tracking (%s)", p), new HorizontalLevelObservingStrategy(
+				new BlurImageModifierModule(),
+				new UnivBooleanImageFilterModule(MathTools.parseDefault(p, 100)),
+				new BasicBorderFinderModule(2, 600, 3),
+				new BasicIntersectionSolver(),
+				new PreviousFrameTrailTrackerModule(20, 0.5)
+		)));
+		list.add(p -> new HorizontalLevelObservingStrategy.ImageOutput(String.format("*HorizontalLevelObserving adaptive (%s tiles)", p), new HorizontalLevelObservingStrategy(
+				new BlurImageModifierModule(),
+				new AdaptiveBooleanImageFilterModule(MathTools.parseDefault(p, 1), MathTools.parseDefault(p, 1), () -> 100, () -> 40),
+				new BasicBorderFinderModule(2, 600, 3),
+				new BasicIntersectionSolver(),
+				new PreviousFrameTrailTrackerModule(20, 0.5)
+		)));
 		list.add(p -> new BallFinderStrategy.ImageOutput("*BallFinding", new BufferedImageMatConverterModule()));
 		list.add(p -> new SubtractingImageBallFinder("*SubtractingImageBallFinder"));
 		// @formatter:on
@@ -0,0 +1,68 @@
+package net.talentum.jackie.tools;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of {@code double} values backed by a primitive array. Counterpart
+ * of {@link PointList} for values such as directions, which are recorded along
+ * with line points.
+ *
+ * @author JJurM
+ */
+public class DoubleList {
+
+	private double[] values;
+	private int size = 0;
+
+	public DoubleList() {
+		this(64);
+	}
+
+	/**
+	 * @param capacity
+	 *            initial number of values that can be stored without growing
+	 */
+	public DoubleList(int capacity) {
+		values = new double[Math.max(capacity, 1)];
+	}
+
+	public void add(double value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
+		}
+		values[size++] = value;
+	}
+
+	/**
+	 * Replaces content of this list with content of the other list.
+	 *
+	 * @param other
+	 */
+	public void copyFrom(DoubleList other) {
+		if (values.length < other.size) {
+			values = new double[other.values.length];
+		}
+		System.arraycopy(other.values, 0, values, 0, other.size);
+		size = other.size;
+	}
+
+	public double get(int index) {
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values, but keeps the allocated capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+}
@@ -2,9 +2,7 @@ package net.talentum.jackie.tools;
 
 import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Point;
 import java.awt.image.BufferedImage;
-import java.util.List;
 
 import net.talentum.jackie.robot.RobotInstruction;
 
@@ -28,10 +26,10 @@ public class InstructionPainter {
 		drawPolyline(g, instruction.momentData.bordersR, Color.green, 2);
 
 		g.setColor(Color.BLUE);
-		instruction.momentData.notFound.stream().forEach(p -> g.fillRect(p.x - 1, p.y - 1, 2, 2));
+		instruction.momentData.notFound.forEach((x, y) -> g.fillRect(x - 1, y - 1, 2, 2));
 
 		g.setColor(Color.CYAN);
-		instruction.momentData.highlight.stream().forEach(p -> g.fillRect(p.x - 2, p.y - 2, 4, 4));
+		instruction.momentData.highlight.forEach((x, y) -> g.fillRect(x - 2, y - 2, 4, 4));
 
 		/*-g.setColor(Color.BLUE);
 		for (Point p : instruction.momentData.notFound) {
@@ -43,17 +41,20 @@ public class InstructionPainter {
 		return target;
 	}
 
-	private static void drawPolyline(Graphics g, List<Point> points, Color color, int width) {
+	private static void drawPolyline(Graphics g, PointList points, Color color, int width) {
 		if (points.size() == 0)
 			return;
 		g.setColor(color);
-		Point a, b;
-		b = points.get(0);
+		int ax, ay, bx, by;
+		bx = points.getX(0);
+		by = points.getY(0);
 		for (int i = 1; i < points.size() - 1; i++) {
-			a = points.get(i);
-			g.drawLine(b.x, b.y, a.x, a.y);
-			g.fillRect(a.x - (width / 2), a.y - (width / 2), width, width);
-			b = a;
+			ax = points.getX(i);
+			ay = points.getY(i);
+			g.drawLine(bx, by, ax, ay);
+			g.fillRect(ax - (width / 2), ay - (width / 2), width, width);
+			bx = ax;
+			by = ay;
 		}
 	}
 	
@@ -0,0 +1,84 @@
+package net.talentum.jackie.tools;
+
+/**
+ * Otsu's method for choosing a threshold from a luminance histogram. The
+ * threshold maximizes the variance between the two classes of values.
+ *
+ * <p>
+ * The result also carries the difference between the mean values of the two
+ * classes, which tells whether the histogram is bimodal at all. A histogram of
+ * a uniform surface gets split too, but its classes lie close to each other.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class OtsuThreshold {
+
+	/**
+	 * Values at or below the threshold belong to the lower class
+	 */
+	public int threshold;
+
+	/**
+	 * Difference between the mean values of the upper and the lower class
+	 */
+	public int contrast;
+
+	/**
+	 * Mean value of the whole histogram
+	 */
+	public int mean;
+
+	/**
+	 * Computes the threshold from the given histogram and stores the result
+	 * into this object.
+	 *
+	 * @param histogram
+	 *            counts of values {@code 0..histogram.length-1}
+	 * @param offset
+	 *            index of the first value in the array
+	 * @param length
+	 *            number of values
+	 * @return this object
+	 */
+	public OtsuThreshold compute(int[] histogram, int offset, int length) {
+		long total = 0;
+		long sum = 0;
+		for (int i = 0; i < length; i++) {
+			total += histogram[offset + i];
+			sum += (long) i * histogram[offset + i];
+		}
+
+		threshold = 0;
+		contrast = 0;
+		mean = 0;
+		if (total == 0)
+			return this;
+		mean = (int) (sum / total);
+
+		long weightLow = 0;
+		long sumLow = 0;
+		double maxVariance = -1;
+		for (int t = 0; t < length; t++) {
+			weightLow += histogram[offset + t];
+			if (weightLow == 0)
+				continue;
+			long weightHigh = total - weightLow;
+			if (weightHigh == 0)
+				break;
+			sumLow += (long) t * histogram[offset + t];
+
+			double meanLow = (double) sumLow / weightLow;
+			double meanHigh = (double) (sum - sumLow) / weightHigh;
+			double diff = meanHigh - meanLow;
+			double variance = (double) weightLow * weightHigh * diff * diff;
+			if (variance > maxVariance) {
+				maxVariance = variance;
+				threshold = t;
+				contrast = (int) diff;
+			}
+		}
+		return this;
+	}
+
+}
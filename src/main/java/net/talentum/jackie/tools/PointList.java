@@ -0,0 +1,135 @@
+package net.talentum.jackie.tools;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Growable list of integer points backed by a primitive {@code int[]} array.
+ * Coordinates are stored interleaved ({@code x0, y0, x1, y1, ...}), so adding
+ * a point does not allocate any object. Calling {@link #clear()} keeps the
+ * allocated capacity, so one instance can be reused for many frames.
+ *
+ * @author JJurM
+ */
+public class PointList {
+
+	private int[] coords;
+	private int size = 0;
+
+	public PointList() {
+		this(64);
+	}
+
+	/**
+	 * @param capacity
+	 *            initial number of points that can be stored without growing
+	 */
+	public PointList(int capacity) {
+		coords = new int[Math.max(capacity, 1) * 2];
+	}
+
+	/**
+	 * Appends point given by its coordinates.
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void add(int x, int y) {
+		if (size * 2 == coords.length) {
+			coords = Arrays.copyOf(coords, coords.length * 2);
+		}
+		coords[size * 2] = x;
+		coords[size * 2 + 1] = y;
+		size++;
+	}
+
+	/**
+	 * Appends coordinates of the given point. The point object itself is not
+	 * retained.
+	 *
+	 * @param p
+	 */
+	public void add(Point p) {
+		add(p.x, p.y);
+	}
+
+	/**
+	 * Replaces content of this list with content of the other list.
+	 *
+	 * @param other
+	 */
+	public void copyFrom(PointList other) {
+		if (coords.length < other.size * 2) {
+			coords = new int[other.coords.length];
+		}
+		System.arraycopy(other.coords, 0, coords, 0, other.size * 2);
+		size = other.size;
+	}
+
+	public int getX(int index) {
+		return coords[index * 2];
+	}
+
+	public int getY(int index) {
+		return coords[index * 2 + 1];
+	}
+
+	/**
+	 * Returns new {@link Point} object with coordinates of the point at the
+	 * given index. Prefer {@link #getX(int)} and {@link #getY(int)} in loops.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public Point get(int index) {
+		return new Point(coords[index * 2], coords[index * 2 + 1]);
+	}
+
+	/**
+	 * Writes coordinates of the point at the given index into {@code dest}.
+	 *
+	 * @param index
+	 * @param dest
+	 * @return {@code dest}
+	 */
+	public Point get(int index, Point dest) {
+		dest.x = coords[index * 2];
+		dest.y = coords[index * 2 + 1];
+		return dest;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all points, but keeps the allocated capacity.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Calls the consumer for every stored point, in order.
+	 *
+	 * @param consumer
+	 */
+	public void forEach(Consumer consumer) {
+		for (int i = 0; i < size; i++) {
+			consumer.accept(coords[i * 2], coords[i * 2 + 1]);
+		}
+	}
+
+	/**
+	 * Consumer of point coordinates.
+	 */
+	@FunctionalInterface
+	public interface Consumer {
+		public void accept(int x, int y);
+	}
+
+}
@@ -0,0 +1,159 @@
+package net.talentum.jackie.tools;
+
+/**
+ * Walks along a ray across a boolean mask using only integer additions. The
+ * position is kept in 16.16 fixed point and the direction vector is taken from
+ * a precomputed sine/cosine table, so no trigonometric function, rounding or
+ * square root is evaluated while stepping.
+ *
+ * <p>
+ * After {@link #start(int, int, double, int)} the walker stands at the
+ * starting point; each {@link #advance()} moves it by one step. Coordinates
+ * produced after {@code i} steps equal
+ * {@code round(x0 + cos(angle) * step * i)} (and likewise for {@code y}),
+ * up to the angular resolution of the table.
+ * </p>
+ *
+ * <p>
+ * The mask is indexed as {@code mask[x][y]}, the same way as
+ * {@code MomentData.bw}.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class RayWalker {
+
+	/**
+	 * Number of bits of the angle table index, the full circle is divided into
+	 * {@code 2^ANGLE_BITS} directions.
+	 */
+	public static final int ANGLE_BITS = 13;
+	public static final int ANGLE_COUNT = 1 << ANGLE_BITS;
+	private static final int ANGLE_MASK = ANGLE_COUNT - 1;
+
+	private static final int FP_SHIFT = 16;
+	private static final int FP_HALF = 1 << (FP_SHIFT - 1);
+
+	private static final int[] COS = new int[ANGLE_COUNT];
+	private static final int[] SIN = new int[ANGLE_COUNT];
+
+	static {
+		for (int i = 0; i < ANGLE_COUNT; i++) {
+			double angle = 2 * Math.PI * i / ANGLE_COUNT;
+			COS[i] = (int) Math.round(Math.cos(angle) * (1 << FP_SHIFT));
+			SIN[i] = (int) Math.round(Math.sin(angle) * (1 << FP_SHIFT));
+		}
+	}
+
+	/**
+	 * Returns index into the angle table nearest to the given angle.
+	 *
+	 * @param angle
+	 *            angle in radians, any value
+	 * @return
+	 */
+	public static int angleIndex(double angle) {
+		return ((int) Math.round(angle * (ANGLE_COUNT / (2 * Math.PI)))) & ANGLE_MASK;
+	}
+
+	private boolean[][] mask;
+	private int width;
+	private int height;
+
+	private int fx, fy;
+	private int sdx, sdy;
+
+	/**
+	 * Current position
+	 */
+	public int x, y;
+
+	/**
+	 * Position before the last {@link #advance()}
+	 */
+	public int prevX, prevY;
+
+	/**
+	 * Sets the mask to walk across.
+	 *
+	 * @param mask
+	 *            mask indexed {@code mask[x][y]}
+	 * @param width
+	 * @param height
+	 */
+	public void setMask(boolean[][] mask, int width, int height) {
+		this.mask = mask;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Places the walker at the given point and sets direction and step
+	 * length. Negative {@code step} walks in the opposite direction.
+	 *
+	 * @param x0
+	 * @param y0
+	 * @param angle
+	 *            direction in radians
+	 * @param step
+	 *            distance moved by one {@link #advance()}
+	 */
+	public void start(int x0, int y0, double angle, int step) {
+		int a = angleIndex(angle);
+		sdx = COS[a] * step;
+		sdy = SIN[a] * step;
+		fx = (x0 << FP_SHIFT) + FP_HALF;
+		fy = (y0 << FP_SHIFT) + FP_HALF;
+		x = prevX = x0;
+		y = prevY = y0;
+	}
+
+	/**
+	 * Moves the walker by one step.
+	 */
+	public void advance() {
+		prevX = x;
+		prevY = y;
+		fx += sdx;
+		fy += sdy;
+		x = fx >> FP_SHIFT;
+		y = fy >> FP_SHIFT;
+	}
+
+	/**
+	 * @return {@code true}, if the current position lies in the mask
+	 */
+	public boolean inBounds() {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	/**
+	 * @return value of the mask at the current position; must be called only
+	 *         if {@link #inBounds()} holds
+	 */
+	public boolean isTrail() {
+		return mask[x][y];
+	}
+
+	/**
+	 * Advances while the current position is an in-bounds trail point. After
+	 * return, {@link #prevX}, {@link #prevY} hold the last trail point (or the
+	 * starting point, if it is not a trail point itself).
+	 *
+	 * @return number of steps made over trail points
+	 */
+	public int walkWhileTrail() {
+		int steps = 0;
+		if (!(inBounds() && isTrail())) {
+			prevX = x;
+			prevY = y;
+			return 0;
+		}
+		do {
+			advance();
+			steps++;
+		} while (inBounds() && isTrail());
+		return steps - 1;
+	}
+
+}
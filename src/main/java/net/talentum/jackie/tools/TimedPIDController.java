@@ -0,0 +1,185 @@
+package net.talentum.jackie.tools;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PID controller that measures the real time between updates using
+ * {@link System#nanoTime()}, so the integral and derivative terms don't depend
+ * on the period of the control loop.
+ *
+ * <p>
+ * The integral and derivative gains are given per nominal period, so they
+ * keep the meaning they have with a fixed-step controller running at that
+ * period. The integral is clamped so that its contribution stays within the
+ * output range, and it is not accumulated while the output is saturated in the
+ * direction of the error. The derivative is low-pass filtered with the given
+ * time constant. When the time since the last update exceeds
+ * {@link #MAX_DT}, the controller restarts from the current error.
+ * </p>
+ *
+ * <p>
+ * The controller is updated from a single thread and allocates nothing.
+ * {@link Gains} are immutable and can be swapped from any thread with
+ * {@link #setGains(Gains)}; an update always uses one consistent set of gains.
+ * </p>
+ *
+ * @author JJurM
+ */
+public class TimedPIDController {
+
+	/**
+	 * Maximum time between updates in seconds, longer gaps restart the
+	 * controller
+	 */
+	public static final double MAX_DT = 0.5;
+
+	/**
+	 * Immutable set of controller parameters.
+	 */
+	public static class Gains {
+
+		public final double p;
+		public final double i;
+		public final double d;
+
+		/**
+		 * Nominal period in seconds, the unit of time for {@link #i} and
+		 * {@link #d}
+		 */
+		public final double period;
+
+		/**
+		 * Time constant of the derivative filter in seconds, {@code 0}
+		 * disables filtering
+		 */
+		public final double derivativeFilter;
+
+		public Gains(double p, double i, double d, double period, double derivativeFilter) {
+			this.p = p;
+			this.i = i;
+			this.d = d;
+			this.period = period;
+			this.derivativeFilter = derivativeFilter;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("P=%f I=%f D=%f period=%fs filter=%fs", p, i, d, period, derivativeFilter);
+		}
+
+	}
+
+	private final AtomicReference<Gains> gains;
+	private final double minOutput;
+	private final double maxOutput;
+
+	// state, owned by the updating thread
+	private long lastTime;
+	private boolean started = false;
+	private double prevError;
+	private double integral;
+	private double derivative;
+
+	private volatile double output;
+
+	/**
+	 * @param gains
+	 * @param minOutput
+	 * @param maxOutput
+	 */
+	public TimedPIDController(Gains gains, double minOutput, double maxOutput) {
+		this.gains = new AtomicReference<Gains>(gains);
+		this.minOutput = minOutput;
+		this.maxOutput = maxOutput;
+	}
+
+	public void setGains(Gains gains) {
+		this.gains.set(gains);
+	}
+
+	public Gains getGains() {
+		return gains.get();
+	}
+
+	/**
+	 * Computes the output for the given error (setpoint minus input), at the
+	 * current time.
+	 *
+	 * @param error
+	 * @return the output
+	 */
+	public double update(double error) {
+		return update(error, System.nanoTime());
+	}
+
+	/**
+	 * Computes the output for the given error (setpoint minus input), measured
+	 * at the given time.
+	 *
+	 * @param error
+	 * @param time
+	 *            time of the measurement, from {@link System#nanoTime()}
+	 * @return the output
+	 */
+	public double update(double error, long time) {
+		Gains g = gains.get();
+		double dt = (time - lastTime) / 1e9;
+
+		if (!started || dt <= 0 || dt > MAX_DT) {
+			// no usable time step, start again from the current error
+			started = true;
+			lastTime = time;
+			prevError = error;
+			integral = 0;
+			derivative = 0;
+			output = MathTools.toRange(g.p * error, minOutput, maxOutput);
+			return output;
+		}
+		lastTime = time;
+
+		// derivative per nominal period, low-pass filtered
+		double rawDerivative = (error - prevError) / dt * g.period;
+		if (g.derivativeFilter > 0) {
+			derivative += (rawDerivative - derivative) * dt / (g.derivativeFilter + dt);
+		} else {
+			derivative = rawDerivative;
+		}
+		prevError = error;
+
+		double unclamped = g.p * error + g.i * integral + g.d * derivative;
+
+		// integrate unless saturated in the direction of the error
+		if (!(unclamped >= maxOutput && error > 0) && !(unclamped <= minOutput && error < 0)) {
+			integral += error * dt / g.period;
+		}
+		if (g.i != 0) {
+			double a = minOutput / g.i;
+			double b = maxOutput / g.i;
+			integral = MathTools.toRange(integral, Math.min(a, b), Math.max(a, b));
+		} else {
+			integral = 0;
+		}
+
+		output = MathTools.toRange(g.p * error + g.i * integral + g.d * derivative, minOutput, maxOutput);
+		return output;
+	}
+
+	/**
+	 * @return output computed by the last update
+	 */
+	public double getOutput() {
+		return output;
+	}
+
+	/**
+	 * Clears the state, the next update starts from scratch. Must be called
+	 * from the updating thread.
+	 */
+	public void reset() {
+		started = false;
+		integral = 0;
+		derivative = 0;
+		output = 0;
+	}
+
+}